@@ -0,0 +1,17 @@
+#!/bin/bash
+set -o errexit
+# Compile the player with MazeCheck and check the maze tables
+
+DIR_PATH=`pwd`
+JAR_PATH="$DIR_PATH/pacman-java.jar"
+OUT_PATH=`mktemp -d`
+trap "rm -rf $OUT_PATH" EXIT
+
+# Compile
+javac -classpath $JAR_PATH -d $OUT_PATH $DIR_PATH/player/*.java $DIR_PATH/check/*.java || { echo "Compilation failed for MazeCheck"; exit 1; }
+
+# Check the given mazes, or the bundled ones and a few random ones
+if [ $# -eq 0 ]; then
+    set -- $DIR_PATH/check/mazes/*.txt -random 75 53 11 -random 101 101 12 -random 201 201 13
+fi
+java -classpath "$JAR_PATH:$OUT_PATH" MazeCheck "$@"
@@ -0,0 +1,963 @@
+import com.orbischallenge.pacman.api.common.MazeItem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the queries of a MazeGraph against plain searches over its tiles.
+ * It is not part of the player, check.sh compiles it with the player classes
+ * and runs it on the mazes given on the command line:
+ *
+ * <pre>
+ * java MazeCheck check/mazes/classic.txt -random 75 53 11
+ * </pre>
+ *
+ * -random WIDTH HEIGHT SEED checks a maze carved by TextMaze.random. The
+ * exit status is 1 if anything didn't match.
+ * <p>
+ * Paths are checked from SOURCES cells spread over the maze, each against
+ * GOALS cells. The k shortest paths must be simple walks to the goal, none
+ * twice, in ascending length from the distance of the goal. Distances are checked from the same cells against breadth
+ * first searches, against every cell when the maze has a DistanceTable and
+ * against TARGETS cells otherwise. A DistanceOracle is checked on every maze
+ * small enough for one, whether the graph uses it or not, and a
+ * LandmarkSearch on every maze. First moves must lead one step closer.
+ * Heading distances are checked against a search over (cell, heading)
+ * states that only turns back at dead ends. The pockets of the TrapAnalysis
+ * are searched again tile by tile. Plans of the SpaceTimePlanner are compared
+ * with a search over every (cell, tick) layer, against ghosts placed at
+ * random near the start. BucketDijkstra runs with random weights and
+ * sources are compared with a Bellman-Ford over the NodeGraph. DotGrid queries are compared with a scan of every
+ * tile while the dots get eaten.
+ * <p>
+ * The graph is also written and read back the way MazeStore does it and
+ * compared with the original, and reading it cut short must fail.
+ */
+public class MazeCheck {
+
+	private static final int SOURCES = 16;
+	private static final int GOALS = 8;
+	private static final int TARGETS = 64;
+	private static final int TRUNCATIONS = 16;
+	private static final int MAX_NODE_LIMIT = 3;
+	private static final double LOOPS = 0.3;
+	private static final int HORIZON = 12;
+	private static final int GHOSTS = 3;
+	private static final int NEAREST = 4;
+	private static final int GRID_QUERIES = 256;
+	private static final int ROUTES = 16;
+	private static final int SHORTEST = 4;
+	private static final int ROUTE_SOURCES = 3;
+	private static final int MAX_WEIGHT = 60;
+
+	private final MazeGraph graph;
+	private final int cellCount;
+	private final int[] queue;
+	private int mismatches;
+
+	private MazeCheck(MazeGraph graph) {
+		this.graph = graph;
+		this.cellCount = graph.getCellCount();
+		this.queue = new int[cellCount * 4];
+	}
+
+	public static void main(String[] args) throws IOException {
+		int mismatches = 0;
+		for (int i = 0; i < args.length; i++) {
+			TextMaze maze;
+			String name;
+			if (args[i].equals("-random") && i + 3 < args.length) {
+				int width = Integer.parseInt(args[i + 1]);
+				int height = Integer.parseInt(args[i + 2]);
+				long seed = Long.parseLong(args[i + 3]);
+				maze = TextMaze.random(width, height, seed, LOOPS);
+				name = "random " + width + "x" + height + " seed " + seed;
+				i += 3;
+			} else {
+				maze = TextMaze.read(args[i]);
+				name = args[i];
+			}
+			System.out.println(name);
+			mismatches += check(new MazeGraph(maze), maze);
+		}
+		if (mismatches > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Run every check, printing a line for each one.
+	 *
+	 * @param graph
+	 * @param maze
+	 *            - the maze the graph was built from, its dots get eaten
+	 * @return int total number of mismatches
+	 */
+	public static int check(MazeGraph graph, TextMaze maze) {
+		MazeCheck check = new MazeCheck(graph);
+		check.checkPathToNextNode();
+		check.checkPaths();
+		check.checkShortestPaths();
+		check.checkDistances();
+		check.checkHeadingDistances();
+		check.checkPockets();
+		check.checkPlanner();
+		check.checkBucketDijkstra();
+		check.checkRoundTrip();
+		check.checkDotGrid(maze);
+		return check.mismatches;
+	}
+
+	private void report(String name, int bad) {
+		System.out.println("  " + name + ": "
+				+ (bad == 0 ? "ok" : bad + " mismatches"));
+		mismatches += bad;
+	}
+
+	private int source(int i) {
+		return graph.getCellTile((int) ((long) i * cellCount / SOURCES));
+	}
+
+	private int sourceCount() {
+		return Math.min(SOURCES, cellCount);
+	}
+
+	private int targetCell(int k, int count) {
+		return (int) ((long) k * cellCount / count);
+	}
+
+	/**
+	 * @return int[] walking distance from a tile to every cell, -1 if
+	 *         unreachable
+	 */
+	private int[] bfs(int from) {
+		int[] dist = new int[cellCount];
+		Arrays.fill(dist, -1);
+		int head = 0, tail = 0;
+		queue[tail++] = from;
+		dist[graph.getCell(from)] = 0;
+		while (head < tail) {
+			int tile = queue[head++];
+			for (int dir = 0; dir < 4; dir++) {
+				int next = graph.getNeighbour(tile, dir);
+				if (next >= 0 && dist[graph.getCell(next)] < 0) {
+					dist[graph.getCell(next)] = dist[graph.getCell(tile)] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return dist;
+	}
+
+	private static int expected(int[] dist, int cell) {
+		return dist[cell] < 0 ? DistanceTable.UNREACHABLE : dist[cell];
+	}
+
+	private int targetCount() {
+		return graph.getDistanceTable() != null ? cellCount : Math.min(
+				TARGETS, cellCount);
+	}
+
+	private void checkDistances() {
+		DistanceTable table = graph.getDistanceTable();
+		DistanceOracle oracle = graph.getDistanceOracle();
+		if (oracle == null && DistanceOracle.fits(graph)) {
+			oracle = new DistanceOracle(graph);
+		}
+		LandmarkSearch landmarks = graph.getLandmarkSearch() != null ? graph
+				.getLandmarkSearch() : new LandmarkSearch(graph);
+		int targets = targetCount();
+		int badGraph = 0, badTable = 0, badOracle = 0, badLandmarks = 0;
+		int badMoves = 0;
+		for (int i = 0; i < sourceCount(); i++) {
+			int from = source(i);
+			int[] dist = bfs(from);
+			for (int k = 0; k < targets; k++) {
+				int cell = targetCell(k, targets);
+				int to = graph.getCellTile(cell);
+				int want = expected(dist, cell);
+				if (graph.distance(from, to) != want) {
+					badGraph++;
+				}
+				if (table != null && table.distance(from, to) != want) {
+					badTable++;
+				}
+				// -1 is a tile the oracle or the search doesn't cover
+				int d = oracle != null ? oracle.distance(from, to) : -1;
+				if (d >= 0 && d != want) {
+					badOracle++;
+				}
+				d = landmarks.distance(from, to);
+				if (d >= 0 && d != want) {
+					badLandmarks++;
+				}
+				if (!checkFirstMove(from, to, want)) {
+					badMoves++;
+				}
+			}
+		}
+		report("distance", badGraph);
+		if (table != null) {
+			report("DistanceTable", badTable);
+		}
+		if (oracle != null) {
+			report("DistanceOracle", badOracle);
+		}
+		report("LandmarkSearch", badLandmarks);
+		report("firstMove", badMoves);
+	}
+
+	/**
+	 * The first move must be -1 exactly when there is nowhere to go, and
+	 * otherwise lead one step closer.
+	 */
+	private boolean checkFirstMove(int from, int to, int want) {
+		int dir = graph.firstMove(from, to);
+		if (from == to || want == DistanceTable.UNREACHABLE) {
+			return dir == -1;
+		}
+		int next = dir >= 0 ? graph.getNeighbour(from, dir) : -1;
+		return next >= 0 && graph.distance(next, to) == want - 1;
+	}
+
+	/**
+	 * Breadth first search over (cell, heading) states, turning back only at
+	 * dead ends.
+	 *
+	 * @return int[] first arrival at every cell, -1 if unreachable
+	 */
+	private int[] headingBfs(int from, int heading) {
+		int[] stateDist = new int[cellCount * 4];
+		Arrays.fill(stateDist, -1);
+		int[] dist = new int[cellCount];
+		Arrays.fill(dist, -1);
+		int head = 0, tail = 0;
+		int start = graph.getCell(from) * 4 + heading;
+		queue[tail++] = start;
+		stateDist[start] = 0;
+		while (head < tail) {
+			int state = queue[head++];
+			int cell = state >>> 2;
+			if (dist[cell] < 0) {
+				dist[cell] = stateDist[state];
+			}
+			int tile = graph.getCellTile(cell);
+			int back = MazeGraph.opposite(state & 3);
+			int moves = 0;
+			for (int dir = 0; dir < 4; dir++) {
+				int next = graph.getNeighbour(tile, dir);
+				if (dir != back && next >= 0) {
+					moves++;
+					tail = visit(stateDist, state, next, dir, tail);
+				}
+			}
+			int next = graph.getNeighbour(tile, back);
+			if (moves == 0 && next >= 0) {
+				tail = visit(stateDist, state, next, back, tail);
+			}
+		}
+		return dist;
+	}
+
+	private int visit(int[] stateDist, int state, int next, int dir, int tail) {
+		int nextState = graph.getCell(next) * 4 + dir;
+		if (stateDist[nextState] < 0) {
+			stateDist[nextState] = stateDist[state] + 1;
+			queue[tail++] = nextState;
+		}
+		return tail;
+	}
+
+	private void checkHeadingDistances() {
+		int bad = 0;
+		for (int i = 0; i < sourceCount(); i++) {
+			int from = source(i);
+			int heading = i % 4;
+			int[] dist = headingBfs(from, heading);
+			int targets = Math.min(TARGETS, cellCount);
+			for (int k = 0; k < targets; k++) {
+				int cell = targetCell(k, targets);
+				int to = graph.getCellTile(cell);
+				int want = expected(dist, cell);
+				if (graph.headingDistance(from, heading, to, Integer.MAX_VALUE) != want) {
+					bad++;
+				}
+				// Below the limit the answer may be UNREACHABLE
+				int limit = k % 8;
+				int bounded = graph.headingDistance(from, heading, to, limit);
+				if (bounded != want && !(want > limit
+						&& bounded == DistanceTable.UNREACHABLE)) {
+					bad++;
+				}
+			}
+		}
+		report("headingDistance", bad);
+	}
+
+	/**
+	 * Search every pocket from its entry node, giving up past MAX_POCKET
+	 * tiles.
+	 */
+	private void checkPockets() {
+		NodeGraph nodeGraph = graph.getNodeGraph();
+		TrapAnalysis trapAnalysis = graph.getTrapAnalysis();
+		int[] dist = new int[graph.getTileCount()];
+		int bad = 0;
+		for (int x = 0; x < nodeGraph.getNodeCount(); x++) {
+			int entry = nodeGraph.getNodeTile(x);
+			for (int edge = nodeGraph.getEdgeStart(x); edge < nodeGraph
+					.getEdgeEnd(x); edge++) {
+				int first = nodeGraph.getTile(edge, 0);
+				if (first == entry) {
+					continue;
+				}
+				Arrays.fill(dist, -1);
+				dist[entry] = 0;
+				dist[first] = 1;
+				int head = 0, tail = 0;
+				queue[tail++] = first;
+				int depth = 0;
+				while (head < tail && tail <= TrapAnalysis.MAX_POCKET) {
+					int tile = queue[head++];
+					depth = dist[tile];
+					for (int dir = 0; dir < 4; dir++) {
+						int next = graph.getNeighbour(tile, dir);
+						if (next >= 0 && dist[next] < 0) {
+							dist[next] = dist[tile] + 1;
+							queue[tail++] = next;
+						}
+					}
+				}
+				boolean small = tail <= TrapAnalysis.MAX_POCKET;
+				if (small ? trapAnalysis.getPocket(edge) != tail
+						|| trapAnalysis.getPocketDepth(edge) != depth
+						: trapAnalysis.getPocket(edge) <= TrapAnalysis.MAX_POCKET
+								|| trapAnalysis.getPocketDepth(edge) != -1) {
+					bad++;
+				}
+			}
+		}
+		report("pockets", bad);
+	}
+
+	private void checkPlanner() {
+		SpaceTimePlanner planner = graph.getSpaceTimePlanner(HORIZON);
+		int ticks = HORIZON + 1;
+		boolean[] reserved = new boolean[cellCount * ticks];
+		Random random = new Random(cellCount);
+		int bad = 0;
+		for (int i = 0; i < sourceCount(); i++) {
+			int start = source(i);
+			planner.clearReservations();
+			Arrays.fill(reserved, false);
+			for (int g = 0; g < GHOSTS; g++) {
+				int ghost = randomWalk(start, random.nextInt(HORIZON), random);
+				int heading = random.nextInt(5) - 1;
+				planner.reserveGhost(ghost, heading);
+				reserveGhost(reserved, ghost, heading);
+			}
+			int tile = randomWalk(start, random.nextInt(HORIZON), random);
+			int tick = random.nextInt(ticks);
+			planner.reserve(tile, tick);
+			reserved[graph.getCell(tile) * ticks + tick] = true;
+			int goals = Math.min(GOALS, cellCount);
+			for (int k = 0; k < goals; k++) {
+				int goal = k == 0 ? randomWalk(start, HORIZON / 2, random)
+						: graph.getCellTile(targetCell(k, goals));
+				for (int dir = 0; dir < 4; dir++) {
+					int want = layeredPlan(reserved, start, dir, goal);
+					if (planner.plan(start, dir, goal, Integer.MAX_VALUE) != want) {
+						bad++;
+					}
+					// A small budget may give up, but never give a wrong answer
+					int bounded = planner.plan(start, dir, goal, k);
+					if (bounded != want
+							&& bounded != SpaceTimePlanner.BUDGET_EXCEEDED) {
+						bad++;
+					}
+				}
+			}
+		}
+		report("SpaceTimePlanner", bad);
+	}
+
+	private int randomWalk(int tile, int steps, Random random) {
+		for (int i = 0; i < steps; i++) {
+			int next = graph.getNeighbour(tile, random.nextInt(4));
+			if (next >= 0) {
+				tile = next;
+			}
+		}
+		return tile;
+	}
+
+	/**
+	 * Reserve every cell a ghost can be on at every tick, moving tick by tick
+	 * over (cell, heading) states that only turn back at dead ends.
+	 */
+	private void reserveGhost(boolean[] reserved, int tile, int heading) {
+		int ticks = HORIZON + 1;
+		boolean[] states = new boolean[cellCount * 5];
+		states[graph.getCell(tile) * 5 + heading + 1] = true;
+		reserved[graph.getCell(tile) * ticks] = true;
+		for (int tick = 1; tick <= HORIZON; tick++) {
+			boolean[] next = new boolean[states.length];
+			for (int state = 0; state < states.length; state++) {
+				if (!states[state]) {
+					continue;
+				}
+				int from = graph.getCellTile(state / 5);
+				int h = state % 5 - 1;
+				int back = h >= 0 ? MazeGraph.opposite(h) : -1;
+				int moves = 0;
+				for (int dir = 0; dir < 4; dir++) {
+					int to = graph.getNeighbour(from, dir);
+					if (dir != back && to >= 0) {
+						moves++;
+						next[graph.getCell(to) * 5 + dir + 1] = true;
+					}
+				}
+				int to = back >= 0 ? graph.getNeighbour(from, back) : -1;
+				if (moves == 0 && to >= 0) {
+					next[graph.getCell(to) * 5 + back + 1] = true;
+				}
+			}
+			for (int state = 0; state < next.length; state++) {
+				if (next[state]) {
+					reserved[state / 5 * ticks + tick] = true;
+				}
+			}
+			states = next;
+		}
+	}
+
+	/**
+	 * Step every cell Pacman can be on from one tick to the next.
+	 *
+	 * @return int first tick at the goal, or at the horizon when the goal is
+	 *         further than that, -1 if every way meets a ghost
+	 */
+	private int layeredPlan(boolean[] reserved, int start, int firstDir,
+			int goal) {
+		int ticks = HORIZON + 1;
+		int first = graph.getNeighbour(start, firstDir);
+		if (first < 0) {
+			return -1;
+		}
+		int d = bfs(first)[graph.getCell(goal)];
+		boolean goalInReach = d >= 0 && d + 1 <= HORIZON;
+		boolean[] layer = new boolean[cellCount];
+		if (canEnter(reserved, graph.getCell(start), graph.getCell(first), 0)) {
+			layer[graph.getCell(first)] = true;
+		}
+		for (int tick = 1; tick <= HORIZON; tick++) {
+			boolean any = false;
+			boolean[] next = new boolean[cellCount];
+			for (int cell = 0; cell < cellCount; cell++) {
+				if (!layer[cell]) {
+					continue;
+				}
+				any = true;
+				for (int dir = 0; dir < 4 && tick < HORIZON; dir++) {
+					int to = graph.getNeighbour(graph.getCellTile(cell), dir);
+					if (to >= 0 && canEnter(reserved, cell, graph.getCell(to), tick)) {
+						next[graph.getCell(to)] = true;
+					}
+				}
+			}
+			if (goalInReach ? layer[graph.getCell(goal)] : any
+					&& tick == HORIZON) {
+				return tick;
+			}
+			layer = next;
+		}
+		return -1;
+	}
+
+	private static boolean canEnter(boolean[] reserved, int fromCell,
+			int toCell, int tick) {
+		int ticks = HORIZON + 1;
+		if (tick + 1 <= HORIZON && reserved[toCell * ticks + tick + 1]) {
+			return false;
+		}
+		return !(reserved[toCell * ticks + tick] && tick + 1 <= HORIZON
+				&& reserved[fromCell * ticks + tick + 1]);
+	}
+
+	/**
+	 * Run the BucketDijkstra from a few random nodes at random costs, over the
+	 * edge lengths and over random weights, and compare every cost with a
+	 * Bellman-Ford. Each parent edge must lead from its parent node at
+	 * exactly the difference in cost, and a run stopped at a target must give
+	 * the cost of the target.
+	 */
+	private void checkBucketDijkstra() {
+		NodeGraph nodeGraph = graph.getNodeGraph();
+		int nodeCount = nodeGraph.getNodeCount();
+		BucketDijkstra router = new BucketDijkstra(nodeGraph);
+		Random random = new Random(cellCount);
+		int[] weights = new int[nodeGraph.getEdgeCount()];
+		int[] sources = new int[ROUTE_SOURCES];
+		int[] costs = new int[ROUTE_SOURCES];
+		int bad = 0;
+		for (int i = 0; i < ROUTES && nodeCount > 0; i++) {
+			boolean lengths = i % 2 == 0;
+			int maxWeight = 0;
+			for (int edge = 0; edge < weights.length; edge++) {
+				weights[edge] = lengths ? nodeGraph.getLength(edge) : random
+						.nextInt(MAX_WEIGHT + 1);
+				maxWeight = Math.max(maxWeight, weights[edge]);
+			}
+			int count = 1 + random.nextInt(ROUTE_SOURCES);
+			for (int s = 0; s < count; s++) {
+				sources[s] = random.nextInt(nodeCount);
+				costs[s] = random.nextInt(MAX_WEIGHT + 1);
+			}
+			int[] want = bellmanFord(weights, sources, costs, count);
+			for (int s = 0; s < count; s++) {
+				router.addSource(sources[s], costs[s]);
+			}
+			router.run(lengths ? null : weights, maxWeight, -1);
+			for (int node = 0; node < nodeCount; node++) {
+				if (router.getDistance(node) != want[node]) {
+					bad++;
+				} else if (want[node] != DistanceTable.UNREACHABLE
+						&& !isParentEdge(router, weights, want, node,
+								sources, costs, count)) {
+					bad++;
+				}
+			}
+			int target = random.nextInt(nodeCount);
+			for (int s = 0; s < count; s++) {
+				router.addSource(sources[s], costs[s]);
+			}
+			if (router.run(lengths ? null : weights, maxWeight, target) != want[target]) {
+				bad++;
+			}
+		}
+		report("BucketDijkstra", bad);
+	}
+
+	private int[] bellmanFord(int[] weights, int[] sources, int[] costs,
+			int count) {
+		NodeGraph nodeGraph = graph.getNodeGraph();
+		int[] dist = new int[nodeGraph.getNodeCount()];
+		Arrays.fill(dist, DistanceTable.UNREACHABLE);
+		for (int s = 0; s < count; s++) {
+			dist[sources[s]] = Math.min(dist[sources[s]], costs[s]);
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int node = 0; node < dist.length; node++) {
+				if (dist[node] == DistanceTable.UNREACHABLE) {
+					continue;
+				}
+				for (int edge = nodeGraph.getEdgeStart(node); edge < nodeGraph
+						.getEdgeEnd(node); edge++) {
+					int to = nodeGraph.getTarget(edge);
+					if (dist[node] + weights[edge] < dist[to]) {
+						dist[to] = dist[node] + weights[edge];
+						changed = true;
+					}
+				}
+			}
+		}
+		return dist;
+	}
+
+	/**
+	 * @return boolean whether the node is a source at its cost, or is reached
+	 *         from its parent node by its parent edge at its cost
+	 */
+	private boolean isParentEdge(BucketDijkstra router, int[] weights,
+			int[] want, int node, int[] sources, int[] costs, int count) {
+		NodeGraph nodeGraph = graph.getNodeGraph();
+		int edge = router.getParentEdge(node);
+		int from = router.getParentNode(node);
+		if (edge < 0) {
+			for (int s = 0; s < count; s++) {
+				if (sources[s] == node && costs[s] == want[node]) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return from >= 0 && edge >= nodeGraph.getEdgeStart(from)
+				&& edge < nodeGraph.getEdgeEnd(from)
+				&& nodeGraph.getTarget(edge) == node
+				&& want[from] + weights[edge] == want[node];
+	}
+
+	/**
+	 * Eat the dots in a random order, asking the grid for the nearest ones to
+	 * a random tile between bites. The distances found must be the smallest
+	 * manhattan distances to the dots left, nearest first.
+	 */
+	private void checkDotGrid(TextMaze maze) {
+		MazeSnapshot snapshot = new MazeSnapshot(maze);
+		DotGrid grid = new DotGrid(graph, snapshot);
+		Random random = new Random(cellCount);
+		int[] tiles = new int[NEAREST];
+		int[] want = new int[cellCount];
+		int bad = 0;
+		int eaten = Math.max(1, cellCount / GRID_QUERIES);
+		for (int i = 0; i < GRID_QUERIES; i++) {
+			int tile = graph.getCellTile(random.nextInt(cellCount));
+			int x = graph.tileX(tile), y = graph.tileY(tile);
+			int k = 1 + i % NEAREST;
+			int found = grid.nearest(x, y, k, tiles);
+			int count = 0;
+			for (int cell = 0; cell < cellCount; cell++) {
+				int t = graph.getCellTile(cell);
+				if (snapshot.isDot(t) || snapshot.isPowerDot(t)) {
+					want[count++] = manhattan(t, x, y);
+				}
+			}
+			Arrays.sort(want, 0, count);
+			if (found != Math.min(k, count)) {
+				bad++;
+			} else {
+				for (int j = 0; j < found; j++) {
+					if (!(snapshot.isDot(tiles[j]) || snapshot.isPowerDot(tiles[j]))
+							|| manhattan(tiles[j], x, y) != want[j]) {
+						bad++;
+						break;
+					}
+				}
+			}
+			// Pacman eats whatever is on the tiles he passes
+			for (int j = 0; j < eaten; j++) {
+				tile = graph.getCellTile(random.nextInt(cellCount));
+				maze.setTileItem(graph.tileX(tile), graph.tileY(tile),
+						MazeItem.BLANK);
+				snapshot.update(maze, tile);
+			}
+		}
+		report("DotGrid", bad);
+	}
+
+	private int manhattan(int tile, int x, int y) {
+		return Math.abs(graph.tileX(tile) - x) + Math.abs(graph.tileY(tile) - y);
+	}
+
+	/**
+	 * Write the graph and read it back, then compare the two.
+	 */
+	private void checkRoundTrip() {
+		byte[] data;
+		MazeGraph copy;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			graph.write(out);
+			out.close();
+			data = bytes.toByteArray();
+			copy = MazeGraph.read(ByteBuffer.wrap(data));
+		} catch (IOException e) {
+			report("round trip", 1);
+			return;
+		} catch (RuntimeException e) {
+			report("round trip", 1);
+			return;
+		}
+		checkTruncated(data);
+		int bad = 0;
+		if (copy.getCellCount() != cellCount
+				|| (copy.getDistanceTable() == null) != (graph.getDistanceTable() == null)
+				|| (copy.getDistanceOracle() == null) != (graph.getDistanceOracle() == null)
+				|| (copy.getLandmarkSearch() == null) != (graph.getLandmarkSearch() == null)) {
+			bad++;
+		}
+		int targets = Math.min(TARGETS, cellCount);
+		for (int i = 0; i < sourceCount() && bad == 0; i++) {
+			int from = source(i);
+			for (int k = 0; k < targets; k++) {
+				int to = graph.getCellTile(targetCell(k, targets));
+				if (!sameQueries(copy, from, to, k % 4)) {
+					bad++;
+				}
+			}
+		}
+		report("round trip", bad);
+	}
+
+	/**
+	 * Reading a cut off file must fail with a RuntimeException, which
+	 * MazeStore treats as a cache miss.
+	 */
+	private void checkTruncated(byte[] data) {
+		int bad = 0;
+		for (int i = 0; i < TRUNCATIONS; i++) {
+			int length = (int) ((long) i * data.length / TRUNCATIONS);
+			try {
+				MazeGraph.read(ByteBuffer.wrap(Arrays.copyOf(data, length)));
+				bad++;
+			} catch (RuntimeException e) {
+				// expected
+			}
+		}
+		report("truncated read", bad);
+	}
+
+	private boolean sameQueries(MazeGraph copy, int from, int to, int dir) {
+		return copy.distance(from, to) == graph.distance(from, to)
+				&& copy.firstMove(from, to) == graph.firstMove(from, to)
+				&& copy.headingDistance(from, dir, to, Integer.MAX_VALUE) == graph
+						.headingDistance(from, dir, to, Integer.MAX_VALUE)
+				&& Arrays.equals(copy.getPathToNextNode(from, dir),
+						graph.getPathToNextNode(from, dir));
+	}
+
+	/**
+	 * Compare the cached path to the next node from every tile and direction
+	 * with a walk along the corridor.
+	 */
+	private void checkPathToNextNode() {
+		int bad = 0;
+		for (int cell = 0; cell < cellCount; cell++) {
+			int tile = graph.getCellTile(cell);
+			for (int dir = 0; dir < 4; dir++) {
+				if (!Arrays.equals(graph.getPathToNextNode(tile, dir),
+						walk(tile, dir))) {
+					bad++;
+				}
+			}
+		}
+		report("getPathToNextNode", bad);
+	}
+
+	/**
+	 * Step from a tile until an intersection or a dead end, turning at
+	 * corners.
+	 */
+	private int[] walk(int tile, int dir) {
+		List<Integer> path = new ArrayList<Integer>();
+		int next = graph.getNeighbour(tile, dir);
+		while (next >= 0 && path.size() < graph.getTileCount()) {
+			path.add(next);
+			if (graph.isIntersection(next)) {
+				break;
+			}
+			int back = graph.dirBetween(next, tile);
+			tile = next;
+			next = -1;
+			if (graph.getNeighbour(tile, dir) >= 0) {
+				next = graph.getNeighbour(tile, dir);
+			} else if (graph.isCorner(tile)) {
+				for (int turn = 0; turn < 4; turn++) {
+					if (turn != back && graph.getNeighbour(tile, turn) >= 0) {
+						dir = turn;
+						next = graph.getNeighbour(tile, turn);
+						break;
+					}
+				}
+			}
+		}
+		int[] result = new int[path.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = path.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * getPaths and searchPaths must give the same paths, in the same order,
+	 * as the recursive search that copied the path and the explored nodes at
+	 * every step. A visitor returning false must stop the search.
+	 */
+	private void checkPaths() {
+		int bad = 0;
+		for (int i = 0; i < sourceCount(); i++) {
+			int start = source(i);
+			int goals = Math.min(GOALS, cellCount);
+			for (int k = 0; k < goals; k++) {
+				int goal = graph.getCellTile(targetCell(k * SOURCES + i,
+						goals * SOURCES));
+				for (int nodeLimit = 1; nodeLimit <= MAX_NODE_LIMIT; nodeLimit++) {
+					List<int[]> want = copyingPaths(start, goal, nodeLimit);
+					if (!samePaths(graph.getPaths(start, goal, nodeLimit), want)) {
+						bad++;
+					}
+					final List<int[]> first = new ArrayList<int[]>();
+					graph.searchPaths(start, goal, nodeLimit,
+							new MazeGraph.PathVisitor() {
+								public boolean visit(int[] path, int length) {
+									first.add(Arrays.copyOf(path, length));
+									return false;
+								}
+							});
+					if (!samePaths(first, want.subList(0,
+							Math.min(1, want.size())))) {
+						bad++;
+					}
+				}
+			}
+		}
+		report("getPaths", bad);
+	}
+
+	/**
+	 * Ask for the SHORTEST shortest paths without a budget. Each one must step
+	 * from tile to neighbour tile without visiting one twice and end at the
+	 * goal, no path may come twice, the lengths must not go down and the
+	 * first must be as long as the distance. A goal out of reach has none.
+	 */
+	private void checkShortestPaths() {
+		int bad = 0;
+		boolean[] seen = new boolean[cellCount];
+		for (int i = 0; i < sourceCount(); i++) {
+			int start = source(i);
+			int goals = Math.min(GOALS, cellCount);
+			for (int k = 0; k < goals; k++) {
+				int goal = graph.getCellTile(targetCell(k * SOURCES + i,
+						goals * SOURCES));
+				List<int[]> paths = graph.getShortestPaths(start, goal,
+						SHORTEST, Integer.MAX_VALUE, Long.MAX_VALUE / 2);
+				int distance = graph.distance(start, goal);
+				if (distance == DistanceTable.UNREACHABLE ? !paths.isEmpty()
+						: paths.isEmpty()
+								|| paths.get(0).length != distance) {
+					bad++;
+					continue;
+				}
+				for (int p = 0; p < paths.size(); p++) {
+					int[] path = paths.get(p);
+					if (!isSimpleWalk(seen, start, goal, path)
+							|| p > 0 && path.length < paths.get(p - 1).length
+							|| samePath(paths, p)) {
+						bad++;
+						break;
+					}
+				}
+			}
+		}
+		report("getShortestPaths", bad);
+	}
+
+	/**
+	 * @return boolean whether the path steps from start to goal through
+	 *         neighbour tiles, without coming back to any tile
+	 */
+	private boolean isSimpleWalk(boolean[] seen, int start, int goal,
+			int[] path) {
+		boolean simple = path.length > 0 ? path[path.length - 1] == goal
+				: start == goal;
+		seen[graph.getCell(start)] = true;
+		int from = start;
+		for (int i = 0; i < path.length && simple; i++) {
+			int dir = 0;
+			while (dir < 4 && graph.getNeighbour(from, dir) != path[i]) {
+				dir++;
+			}
+			simple = dir < 4 && !seen[graph.getCell(path[i])];
+			if (simple) {
+				seen[graph.getCell(path[i])] = true;
+			}
+			from = path[i];
+		}
+		seen[graph.getCell(start)] = false;
+		for (int tile : path) {
+			if (graph.isAccessible(tile)) {
+				seen[graph.getCell(tile)] = false;
+			}
+		}
+		return simple;
+	}
+
+	private static boolean samePath(List<int[]> paths, int p) {
+		for (int i = 0; i < p; i++) {
+			if (Arrays.equals(paths.get(i), paths.get(p))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean samePaths(List<int[]> paths, List<int[]> want) {
+		if (paths.size() != want.size()) {
+			return false;
+		}
+		for (int i = 0; i < paths.size(); i++) {
+			if (!Arrays.equals(paths.get(i), want.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private List<int[]> copyingPaths(int start, int goal, int nodeLimit) {
+		NodeGraph nodeGraph = graph.getNodeGraph();
+		List<int[]> paths = new ArrayList<int[]>();
+		for (int dir = 0; dir < 4; dir++) {
+			int[] path = graph.getPathToNextNode(start, dir);
+			if (path.length == 0) {
+				continue;
+			}
+			int goalIndex = indexOf(path, goal);
+			if (goalIndex >= 0) {
+				paths.add(Arrays.copyOf(path, goalIndex + 1));
+				continue;
+			}
+			int node = nodeGraph.getNode(path[path.length - 1]);
+			if (node < 0) {
+				continue;
+			}
+			for (int edge = nodeGraph.getEdgeStart(node); edge < nodeGraph
+					.getEdgeEnd(node); edge++) {
+				if (nodeGraph.indexOf(edge, start) < 0) {
+					int[] explored = { start, nodeGraph.getNodeTile(node) };
+					copyingPathsFromNode(paths, path, edge, explored, goal,
+							nodeLimit);
+				}
+			}
+		}
+		return paths;
+	}
+
+	private void copyingPathsFromNode(List<int[]> paths, int[] currPath,
+			int edge, int[] explored, int goal, int nodeLimit) {
+		NodeGraph nodeGraph = graph.getNodeGraph();
+		int goalIndex = nodeGraph.indexOf(edge, goal);
+		if (goalIndex >= 0) {
+			paths.add(concat(currPath, edge, goalIndex + 1));
+			return;
+		}
+		int target = nodeGraph.getTarget(edge);
+		int node = nodeGraph.getNodeTile(target);
+		if (indexOf(explored, node) >= 0 || explored.length > nodeLimit) {
+			return;
+		}
+		int[] newExplored = Arrays.copyOf(explored, explored.length + 1);
+		newExplored[explored.length] = node;
+		int[] newCurrPath = concat(currPath, edge, nodeGraph.getLength(edge));
+		for (int next = nodeGraph.getEdgeStart(target); next < nodeGraph
+				.getEdgeEnd(target); next++) {
+			copyingPathsFromNode(paths, newCurrPath, next, newExplored, goal,
+					nodeLimit);
+		}
+	}
+
+	private int[] concat(int[] head, int edge, int tailLength) {
+		int[] path = Arrays.copyOf(head, head.length + tailLength);
+		for (int i = 0; i < tailLength; i++) {
+			path[head.length + i] = graph.getNodeGraph().getTile(edge, i);
+		}
+		return path;
+	}
+
+	private static int indexOf(int[] tiles, int tile) {
+		for (int i = 0; i < tiles.length; i++) {
+			if (tiles[i] == tile) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,254 @@
+import com.orbischallenge.pacman.api.common.MazeItem;
+import com.orbischallenge.pacman.api.common.MoveDir;
+import com.orbischallenge.pacman.api.java.JUtil;
+import com.orbischallenge.pacman.api.java.Maze;
+
+import java.awt.Point;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A Maze read from a text layout, one line per row: '#' is a wall, '.' a
+ * dot, 'o' a power dot, 'T' a teleport, '-' the ghost house door and
+ * anything else a blank tile. Short lines are padded with blanks.
+ */
+public class TextMaze implements Maze {
+
+	private static final int PIXELS_PER_TILE = 16;
+
+	private final MazeItem[][] items;
+	private final int width;
+	private final int height;
+
+	public TextMaze(List<String> rows) {
+		this.height = rows.size();
+		int w = 0;
+		for (String row : rows) {
+			w = Math.max(w, row.length());
+		}
+		this.width = w;
+		this.items = new MazeItem[height][width];
+		for (int y = 0; y < height; y++) {
+			String row = rows.get(y);
+			for (int x = 0; x < width; x++) {
+				items[y][x] = toItem(x < row.length() ? row.charAt(x) : ' ');
+			}
+		}
+	}
+
+	/**
+	 * Read a layout from a text file
+	 */
+	public static TextMaze read(String file) throws IOException {
+		List<String> rows = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String row;
+			while ((row = in.readLine()) != null) {
+				if (row.length() > 0) {
+					rows.add(row);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return new TextMaze(rows);
+	}
+
+	/**
+	 * Carve a random maze: a spanning tree over the odd tiles, with extra
+	 * walls knocked through to make loops, and four power dots.
+	 *
+	 * @param width
+	 * @param height
+	 * @param seed
+	 * @param loops
+	 *            - chance of removing each remaining inner wall between two
+	 *            corridor tiles
+	 */
+	public static TextMaze random(int width, int height, long seed,
+			double loops) {
+		Random random = new Random(seed);
+		char[][] grid = new char[height][width];
+		for (char[] row : grid) {
+			Arrays.fill(row, '#');
+		}
+		int cols = (width - 1) / 2, rows = (height - 1) / 2;
+		boolean[] seen = new boolean[cols * rows];
+		int[] stack = new int[cols * rows];
+		int size = 0;
+		stack[size++] = 0;
+		seen[0] = true;
+		grid[1][1] = '.';
+		int[] next = new int[4];
+		while (size > 0) {
+			int cell = stack[size - 1];
+			int cx = cell % cols, cy = cell / cols;
+			int count = 0;
+			for (MoveDir dir : MoveDir.values()) {
+				int nx = cx + JUtil.getVectorX(dir), ny = cy + JUtil.getVectorY(dir);
+				if (nx >= 0 && ny >= 0 && nx < cols && ny < rows
+						&& !seen[ny * cols + nx]) {
+					next[count++] = ny * cols + nx;
+				}
+			}
+			if (count == 0) {
+				size--;
+				continue;
+			}
+			int n = next[random.nextInt(count)];
+			int nx = n % cols, ny = n / cols;
+			grid[ny * 2 + 1][nx * 2 + 1] = '.';
+			grid[cy + ny + 1][cx + nx + 1] = '.';
+			seen[n] = true;
+			stack[size++] = n;
+		}
+		for (int y = 1; y < height - 1; y++) {
+			for (int x = 1; x < width - 1; x++) {
+				if (grid[y][x] == '#' && (x % 2 == 0) != (y % 2 == 0)
+						&& random.nextDouble() < loops) {
+					grid[y][x] = '.';
+				}
+			}
+		}
+		for (int i = 0; i < 4 && cols * rows > 0; i++) {
+			int cell = random.nextInt(cols * rows);
+			grid[cell / cols * 2 + 1][cell % cols * 2 + 1] = 'o';
+		}
+		List<String> layout = new ArrayList<String>();
+		for (char[] row : grid) {
+			layout.add(new String(row));
+		}
+		return new TextMaze(layout);
+	}
+
+	private static MazeItem toItem(char c) {
+		switch (c) {
+		case '#':
+			return MazeItem.WALL;
+		case '.':
+			return MazeItem.DOT;
+		case 'o':
+			return MazeItem.POWER_DOT;
+		case 'T':
+			return MazeItem.TELEPORT;
+		case '-':
+			return MazeItem.DOOR;
+		default:
+			return MazeItem.BLANK;
+		}
+	}
+
+	private boolean inside(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	public boolean isAccessible(int x, int y) {
+		return inside(x, y) && items[y][x] != MazeItem.WALL
+				&& items[y][x] != MazeItem.DOOR;
+	}
+
+	public boolean isAccessible(Point tile) {
+		return isAccessible(tile.x, tile.y);
+	}
+
+	public List<Point> getAccessibleNeighbours(Point tile) {
+		List<Point> neighbours = new ArrayList<Point>();
+		for (MoveDir dir : MoveDir.values()) {
+			Point next = new Point(tile.x + JUtil.getVectorX(dir), tile.y
+					+ JUtil.getVectorY(dir));
+			if (isAccessible(next)) {
+				neighbours.add(next);
+			}
+		}
+		return neighbours;
+	}
+
+	public boolean isIntersection(Point tile) {
+		return isAccessible(tile) && getAccessibleNeighbours(tile).size() >= 3;
+	}
+
+	public boolean isDeadEnd(Point tile) {
+		return isAccessible(tile) && getAccessibleNeighbours(tile).size() == 1;
+	}
+
+	public boolean isCorner(Point tile) {
+		List<Point> neighbours = getAccessibleNeighbours(tile);
+		return isAccessible(tile) && neighbours.size() == 2
+				&& neighbours.get(0).x != neighbours.get(1).x
+				&& neighbours.get(0).y != neighbours.get(1).y;
+	}
+
+	public boolean isStraight(Point tile) {
+		return isAccessible(tile) && getAccessibleNeighbours(tile).size() == 2
+				&& !isCorner(tile);
+	}
+
+	public int getDotsCount() {
+		int count = 0;
+		for (MazeItem[] row : items) {
+			for (MazeItem item : row) {
+				if (item == MazeItem.DOT) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public MazeItem getPixelItem(int x, int y) {
+		return getTileItem(x / PIXELS_PER_TILE, y / PIXELS_PER_TILE);
+	}
+
+	public MazeItem getPixelItem(Point pixel) {
+		return getPixelItem(pixel.x, pixel.y);
+	}
+
+	public List<Point> getPowerDotsTiles() {
+		List<Point> tiles = new ArrayList<Point>();
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (items[y][x] == MazeItem.POWER_DOT) {
+					tiles.add(new Point(x, y));
+				}
+			}
+		}
+		return tiles;
+	}
+
+	public MazeItem getTileItem(int x, int y) {
+		return inside(x, y) ? items[y][x] : MazeItem.WALL;
+	}
+
+	public MazeItem getTileItem(Point tile) {
+		return getTileItem(tile.x, tile.y);
+	}
+
+	/**
+	 * Change the item on a tile, to play out eating dots.
+	 */
+	public void setTileItem(int x, int y, MazeItem item) {
+		items[y][x] = item;
+	}
+
+	public MazeItem[][] toMatrix() {
+		MazeItem[][] copy = new MazeItem[height][];
+		for (int y = 0; y < height; y++) {
+			copy[y] = items[y].clone();
+		}
+		return copy;
+	}
+}
@@ -0,0 +1,226 @@
+import java.util.Arrays;
+
+/**
+ * Dijkstra over the NodeGraph with caller supplied integer edge weights, such
+ * as edge length plus a danger penalty minus a dot reward. Costs in this game
+ * are small integers, so the queue is a circular array of buckets, one per
+ * cost value in a window of maxWeight + 1 (Dial's algorithm), with the queued
+ * nodes in doubly linked lists through int arrays. After the first run with a
+ * given maximum weight, runs allocate nothing, so it is cheap enough for
+ * several queries per frame.
+ * <p>
+ * Usage: addSource() for every start node, then run(), then getDistance()
+ * and getParentEdge() to read the result.
+ * <p>
+ * The player doesn't use it: routing to the cheapest edge with dots, with a
+ * penalty for edges holding a harmful ghost, gave more deaths in simulated
+ * games than findBestDirToNearestDot.
+ */
+public class BucketDijkstra {
+
+	private final NodeGraph nodeGraph;
+	private final int maxLength;
+
+	private final int[] dist;
+	private final int[] parentEdge;
+	private final int[] parentNode;
+	private final int[] stamp;
+	private final boolean[] settled;
+	private int currentStamp = 1;
+
+	// Queued nodes: the bucket they're in, and their list neighbours
+	private final int[] bucketOf;
+	private final int[] next;
+	private final int[] prev;
+	private int[] bucketHead = new int[0];
+
+	private int[] sourceNode = new int[4];
+	private int[] sourceCost = new int[4];
+	private int sourceCount;
+
+	public BucketDijkstra(NodeGraph nodeGraph) {
+		this.nodeGraph = nodeGraph;
+		int nodeCount = nodeGraph.getNodeCount();
+		int max = 0;
+		for (int edge = 0; edge < nodeGraph.getEdgeCount(); edge++) {
+			max = Math.max(max, nodeGraph.getLength(edge));
+		}
+		this.maxLength = max;
+		this.dist = new int[nodeCount];
+		this.parentEdge = new int[nodeCount];
+		this.parentNode = new int[nodeCount];
+		this.stamp = new int[nodeCount];
+		this.settled = new boolean[nodeCount];
+		this.bucketOf = new int[nodeCount];
+		this.next = new int[nodeCount];
+		this.prev = new int[nodeCount];
+		Arrays.fill(bucketOf, -1);
+	}
+
+	/**
+	 * Start the next run from a node, reached at the given cost.
+	 */
+	public void addSource(int node, int cost) {
+		if (sourceCount == sourceNode.length) {
+			sourceNode = Arrays.copyOf(sourceNode, sourceCount * 2);
+			sourceCost = Arrays.copyOf(sourceCost, sourceCount * 2);
+		}
+		sourceNode[sourceCount] = node;
+		sourceCost[sourceCount++] = cost;
+	}
+
+	/**
+	 * Run from the nodes given to addSource, which are then forgotten.
+	 *
+	 * @param weights
+	 *            - non negative weight of every edge, or null for the edge
+	 *            lengths
+	 * @param maxWeight
+	 *            - the largest value in weights, ignored when it's null
+	 * @param target
+	 *            - node to stop at once it's settled, or -1 to settle every
+	 *            reachable node
+	 * @return int cost of target, or DistanceTable.UNREACHABLE
+	 */
+	public int run(int[] weights, int maxWeight, int target) {
+		if (weights == null) {
+			maxWeight = maxLength;
+		}
+		if (++currentStamp == 0) {
+			Arrays.fill(stamp, 0);
+			currentStamp = 1;
+		}
+		int minCost = Integer.MAX_VALUE, maxCost = 0;
+		for (int i = 0; i < sourceCount; i++) {
+			minCost = Math.min(minCost, sourceCost[i]);
+			maxCost = Math.max(maxCost, sourceCost[i]);
+		}
+		// Every queued cost stays within one window of the current one
+		int window = Math.max(maxWeight, maxCost - minCost) + 1;
+		if (bucketHead.length < window) {
+			bucketHead = new int[window];
+			Arrays.fill(bucketHead, -1);
+		}
+		int buckets = bucketHead.length;
+		int queued = 0;
+		for (int i = 0; i < sourceCount; i++) {
+			int node = sourceNode[i];
+			if (relax(node, sourceCost[i], -1, -1)) {
+				if (bucketOf[node] < 0) {
+					queued++;
+				} else {
+					unlink(node);
+				}
+				link(node, sourceCost[i] % buckets);
+			}
+		}
+		sourceCount = 0;
+
+		int cost = minCost;
+		int result = DistanceTable.UNREACHABLE;
+		while (queued > 0) {
+			int bucket = cost % buckets;
+			int node = bucketHead[bucket];
+			if (node < 0) {
+				cost++;
+				continue;
+			}
+			unlink(node);
+			queued--;
+			settled[node] = true;
+			if (node == target) {
+				result = cost;
+				break;
+			}
+			for (int edge = nodeGraph.getEdgeStart(node); edge < nodeGraph
+					.getEdgeEnd(node); edge++) {
+				int to = nodeGraph.getTarget(edge);
+				int nd = cost
+						+ (weights == null ? nodeGraph.getLength(edge)
+								: weights[edge]);
+				if (relax(to, nd, edge, node)) {
+					if (bucketOf[to] < 0) {
+						queued++;
+					} else {
+						unlink(to);
+					}
+					link(to, nd % buckets);
+				}
+			}
+		}
+		// Leave the buckets empty for the next run
+		if (queued > 0) {
+			for (int b = 0; b < buckets; b++) {
+				while (bucketHead[b] >= 0) {
+					unlink(bucketHead[b]);
+				}
+			}
+		}
+		return result;
+	}
+
+	private boolean relax(int node, int cost, int edge, int from) {
+		if (stamp[node] != currentStamp) {
+			stamp[node] = currentStamp;
+			settled[node] = false;
+		} else if (settled[node] || dist[node] <= cost) {
+			return false;
+		}
+		dist[node] = cost;
+		parentEdge[node] = edge;
+		parentNode[node] = from;
+		return true;
+	}
+
+	private void link(int node, int bucket) {
+		int head = bucketHead[bucket];
+		next[node] = head;
+		prev[node] = -1;
+		if (head >= 0) {
+			prev[head] = node;
+		}
+		bucketHead[bucket] = node;
+		bucketOf[node] = bucket;
+	}
+
+	private void unlink(int node) {
+		int bucket = bucketOf[node];
+		if (prev[node] >= 0) {
+			next[prev[node]] = next[node];
+		} else {
+			bucketHead[bucket] = next[node];
+		}
+		if (next[node] >= 0) {
+			prev[next[node]] = prev[node];
+		}
+		bucketOf[node] = -1;
+	}
+
+	/**
+	 * @param node
+	 * @return int cost of the node in the last run, or UNREACHABLE. After a
+	 *         run stopped at its target, nodes not yet settled may still
+	 *         have too high a cost.
+	 */
+	public int getDistance(int node) {
+		return stamp[node] == currentStamp ? dist[node]
+				: DistanceTable.UNREACHABLE;
+	}
+
+	/**
+	 * @param node
+	 * @return int edge the node was reached by in the last run, or -1 for a
+	 *         source or an unreached node
+	 */
+	public int getParentEdge(int node) {
+		return stamp[node] == currentStamp ? parentEdge[node] : -1;
+	}
+
+	/**
+	 * @param node
+	 * @return int node the parent edge leaves from, or -1
+	 */
+	public int getParentNode(int node) {
+		return stamp[node] == currentStamp ? parentNode[node] : -1;
+	}
+}
@@ -0,0 +1,215 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Walking distance between any two tiles from the shortest distances between
+ * the nodes of the NodeGraph only. A tile inside a corridor segment is a known
+ * number of steps from both ends of its segment, so a query tries the two ends
+ * of each tile against the node table, plus the straight walk when both tiles
+ * share a segment. Memory grows with the number of nodes squared instead of
+ * the number of tiles squared. Like a DistanceTable, an oracle loaded by
+ * MazeStore reads its node table straight from the memory mapped file.
+ */
+public class DistanceOracle {
+
+	private static final int INFINITY = Integer.MAX_VALUE / 4;
+
+	/**
+	 * Largest number of nodes we build an oracle for, which keeps the node
+	 * table under 16MB.
+	 */
+	public static final int MAX_NODES = 2048;
+
+	private final MazeGraph graph;
+	private final NodeGraph nodeGraph;
+	private final SegmentIndex segments;
+	private final int nodeCount;
+	private final IntBuffer nodeDist;
+
+	public DistanceOracle(MazeGraph graph) {
+		this.graph = graph;
+		this.nodeGraph = graph.getNodeGraph();
+		this.segments = graph.getSegmentIndex();
+		this.nodeCount = nodeGraph.getNodeCount();
+		int[] table = new int[nodeCount * nodeCount];
+		long[] heap = new long[nodeGraph.getEdgeCount() + 1];
+		for (int source = 0; source < nodeCount; source++) {
+			dijkstra(table, source, heap);
+		}
+		this.nodeDist = IntBuffer.wrap(table);
+	}
+
+	private DistanceOracle(MazeGraph graph, IntBuffer nodeDist) {
+		this.graph = graph;
+		this.nodeGraph = graph.getNodeGraph();
+		this.segments = graph.getSegmentIndex();
+		this.nodeCount = nodeGraph.getNodeCount();
+		this.nodeDist = nodeDist;
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(nodeCount);
+		for (int i = 0; i < nodeCount * nodeCount; i++) {
+			out.writeInt(nodeDist.get(i));
+		}
+	}
+
+	/**
+	 * Read an oracle without copying its node table, the returned oracle
+	 * keeps a view of the buffer.
+	 */
+	static DistanceOracle read(ByteBuffer in, MazeGraph graph) {
+		int nodeCount = in.getInt();
+		MazeStore.check(nodeCount == graph.getNodeGraph().getNodeCount()
+				&& (long) nodeCount * nodeCount * 4 <= in.remaining());
+		ByteBuffer view = in.slice();
+		view.limit(nodeCount * nodeCount * 4);
+		in.position(in.position() + nodeCount * nodeCount * 4);
+		return new DistanceOracle(graph, view.asIntBuffer());
+	}
+
+	public static boolean fits(MazeGraph graph) {
+		return graph.getNodeGraph().getNodeCount() <= MAX_NODES;
+	}
+
+	/**
+	 * Fill in one row of the node table, with a binary heap of (distance,
+	 * node) pairs where stale entries are skipped when popped.
+	 */
+	private void dijkstra(int[] nodeDist, int source, long[] heap) {
+		int row = source * nodeCount;
+		Arrays.fill(nodeDist, row, row + nodeCount, INFINITY);
+		nodeDist[row + source] = 0;
+		int size = 0;
+		heap[size++] = source;
+		while (size > 0) {
+			long top = heap[0];
+			heap[0] = heap[--size];
+			siftDown(heap, size);
+			int node = (int) top;
+			int d = (int) (top >>> 32);
+			if (d > nodeDist[row + node]) {
+				continue;
+			}
+			for (int edge = nodeGraph.getEdgeStart(node); edge < nodeGraph
+					.getEdgeEnd(node); edge++) {
+				int target = nodeGraph.getTarget(edge);
+				int nd = d + nodeGraph.getLength(edge);
+				if (nd < nodeDist[row + target]) {
+					nodeDist[row + target] = nd;
+					heap[size] = (long) nd << 32 | target;
+					siftUp(heap, size++);
+				}
+			}
+		}
+	}
+
+	private static void siftUp(long[] heap, int i) {
+		long value = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent] <= value) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = value;
+	}
+
+	private static void siftDown(long[] heap, int size) {
+		if (size == 0) {
+			return;
+		}
+		long value = heap[0];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && heap[child + 1] < heap[child]) {
+				child++;
+			}
+			if (heap[child] >= value) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = value;
+	}
+
+	/**
+	 * @param from
+	 *            - node ID
+	 * @param to
+	 *            - node ID
+	 * @return int walking distance, or UNREACHABLE
+	 */
+	public int nodeDistance(int from, int to) {
+		int d = nodeDist.get(from * nodeCount + to);
+		return d >= INFINITY ? DistanceTable.UNREACHABLE : d;
+	}
+
+	/**
+	 * @param from
+	 *            - tile ID
+	 * @param to
+	 *            - tile ID
+	 * @return int walking distance, UNREACHABLE, or -1 if a tile is on no
+	 *         segment and the oracle can't tell
+	 */
+	public int distance(int from, int to) {
+		if (!graph.isAccessible(from) || !graph.isAccessible(to)) {
+			return DistanceTable.UNREACHABLE;
+		}
+		if (from == to) {
+			return 0;
+		}
+		int fromNode = nodeGraph.getNode(from);
+		int toNode = nodeGraph.getNode(to);
+		int fromSeg = -1, toSeg = -1;
+		if (fromNode < 0) {
+			fromSeg = segments.getSegment(from);
+			if (fromSeg < 0 || segments.getNodeA(fromSeg) < 0) {
+				return -1;
+			}
+		}
+		if (toNode < 0) {
+			toSeg = segments.getSegment(to);
+			if (toSeg < 0 || segments.getNodeA(toSeg) < 0) {
+				return -1;
+			}
+		}
+
+		int best = INFINITY;
+		if (fromSeg >= 0 && fromSeg == toSeg) {
+			best = Math.abs(segments.getOffset(from) - segments.getOffset(to));
+		}
+		for (int i = 0; i < (fromNode >= 0 ? 1 : 2); i++) {
+			int a = fromNode;
+			int da = 0;
+			if (fromNode < 0) {
+				a = i == 0 ? segments.getNodeA(fromSeg) : segments.getNodeB(fromSeg);
+				da = i == 0 ? segments.getOffset(from) + 1 : segments
+						.getLength(fromSeg) - segments.getOffset(from);
+			}
+			int row = a * nodeCount;
+			for (int j = 0; j < (toNode >= 0 ? 1 : 2); j++) {
+				int b = toNode;
+				int db = 0;
+				if (toNode < 0) {
+					b = j == 0 ? segments.getNodeA(toSeg) : segments.getNodeB(toSeg);
+					db = j == 0 ? segments.getOffset(to) + 1 : segments
+							.getLength(toSeg) - segments.getOffset(to);
+				}
+				best = Math.min(best, da + nodeDist.get(row + b) + db);
+			}
+		}
+		return best >= INFINITY ? DistanceTable.UNREACHABLE : best;
+	}
+}
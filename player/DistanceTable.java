@@ -0,0 +1,107 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Walking distance between every pair of accessible tiles, found by running a
+ * breadth first search from each of them. Distances are kept in one short
+ * buffer indexed by MazeGraph cell numbers, so a query is a single read. A
+ * table loaded by MazeStore reads straight from the memory mapped file.
+ */
+public class DistanceTable {
+
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	/**
+	 * Largest number of accessible tiles we build a full table for, which
+	 * keeps the table under 16MB.
+	 */
+	public static final int MAX_CELLS = 2896;
+
+	private final MazeGraph graph;
+	private final int cellCount;
+	private final ShortBuffer dist;
+
+	public DistanceTable(MazeGraph graph) {
+		this.graph = graph;
+		this.cellCount = graph.getCellCount();
+		short[] table = new short[cellCount * cellCount];
+		Arrays.fill(table, (short) -1);
+		int[] queue = new int[cellCount];
+		for (int source = 0; source < cellCount; source++) {
+			bfs(table, source, queue);
+		}
+		this.dist = ShortBuffer.wrap(table);
+	}
+
+	private DistanceTable(MazeGraph graph, ShortBuffer dist) {
+		this.graph = graph;
+		this.cellCount = graph.getCellCount();
+		this.dist = dist;
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(cellCount);
+		for (int i = 0; i < cellCount * cellCount; i++) {
+			out.writeShort(dist.get(i));
+		}
+	}
+
+	/**
+	 * Read a table without copying it, the returned table keeps a view of
+	 * the buffer.
+	 */
+	static DistanceTable read(ByteBuffer in, MazeGraph graph) {
+		int cellCount = in.getInt();
+		MazeStore.check(cellCount == graph.getCellCount()
+				&& (long) cellCount * cellCount * 2 <= in.remaining());
+		ByteBuffer view = in.slice();
+		view.limit(cellCount * cellCount * 2);
+		in.position(in.position() + cellCount * cellCount * 2);
+		return new DistanceTable(graph, view.asShortBuffer());
+	}
+
+	public static boolean fits(MazeGraph graph) {
+		return graph.getCellCount() <= MAX_CELLS;
+	}
+
+	private void bfs(short[] dist, int source, int[] queue) {
+		int row = source * cellCount;
+		int head = 0, tail = 0;
+		queue[tail++] = graph.getCellTile(source);
+		dist[row + source] = 0;
+		while (head < tail) {
+			int tile = queue[head++];
+			int d = dist[row + graph.getCell(tile)] + 1;
+			for (int dir = 0; dir < 4; dir++) {
+				int next = graph.getNeighbour(tile, dir);
+				if (next >= 0) {
+					int cell = row + graph.getCell(next);
+					if (dist[cell] < 0) {
+						dist[cell] = (short) d;
+						queue[tail++] = next;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param from
+	 *            - tile ID
+	 * @param to
+	 *            - tile ID
+	 * @return int walking distance in tiles, or UNREACHABLE
+	 */
+	public int distance(int from, int to) {
+		int fromCell = graph.getCell(from);
+		int toCell = graph.getCell(to);
+		if (fromCell < 0 || toCell < 0) {
+			return UNREACHABLE;
+		}
+		int d = dist.get(fromCell * cellCount + toCell);
+		return d < 0 ? UNREACHABLE : d;
+	}
+}
@@ -0,0 +1,173 @@
+import com.orbischallenge.pacman.api.common.MazeItem;
+
+import java.util.Arrays;
+
+/**
+ * Walking distance from every tile to the nearest dot or power dot left. The
+ * field is built with one breadth first search from all the dots, then kept
+ * up to date from MazeSnapshot changes. When a dot is eaten only the tiles
+ * whose distance was based on it are searched again; a new dot just
+ * lowers the distances around it.
+ * <p>
+ * The neighbour with the smallest distance is always one step closer to a
+ * dot, so following the field needs no search at all.
+ */
+public class DotDistanceField implements MazeSnapshot.ItemListener {
+
+	private final MazeGraph graph;
+	private final int[] dist;
+
+	// Scratch space for the repairs
+	private final boolean[] affected;
+	private final int[] queue;
+	private final long[] seeds;
+
+	public DotDistanceField(MazeGraph graph, MazeSnapshot snapshot) {
+		this.graph = graph;
+		int tileCount = graph.getTileCount();
+		this.dist = new int[tileCount];
+		this.affected = new boolean[tileCount];
+		this.queue = new int[tileCount];
+		this.seeds = new long[tileCount];
+		Arrays.fill(dist, DistanceTable.UNREACHABLE);
+		int tail = 0;
+		for (int tile = 0; tile < tileCount; tile++) {
+			if (graph.isAccessible(tile)
+					&& (snapshot.isDot(tile) || snapshot.isPowerDot(tile))) {
+				dist[tile] = 0;
+				queue[tail++] = tile;
+			}
+		}
+		spread(0, tail);
+		snapshot.addListener(this);
+	}
+
+	/**
+	 * Breadth first search from the tiles in queue[head..tail), lowering the
+	 * distance of every tile it can.
+	 */
+	private void spread(int head, int tail) {
+		while (head < tail) {
+			int tile = queue[head++];
+			int d = dist[tile] + 1;
+			for (int dir = 0; dir < 4; dir++) {
+				int next = graph.getNeighbour(tile, dir);
+				if (next >= 0 && dist[next] > d) {
+					dist[next] = d;
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void itemChanged(int tile, MazeItem old, MazeItem item) {
+		boolean was = isFood(old), is = isFood(item);
+		if (is && !was && dist[tile] > 0) {
+			dist[tile] = 0;
+			queue[0] = tile;
+			spread(0, 1);
+		} else if (was && !is && dist[tile] == 0) {
+			remove(tile);
+		}
+	}
+
+	private static boolean isFood(MazeItem item) {
+		return item == MazeItem.DOT || item == MazeItem.POWER_DOT;
+	}
+
+	/**
+	 * Repair the field after the dot on a tile is gone. First find the tiles
+	 * left without a neighbour one step closer to a dot, level by level from
+	 * the tile, then give them the distance of their nearest unaffected
+	 * neighbour and search outwards from those in increasing order.
+	 */
+	private void remove(int source) {
+		int head = 0, tail = 0;
+		queue[tail++] = source;
+		affected[source] = true;
+		while (head < tail) {
+			int tile = queue[head++];
+			int d = dist[tile] + 1;
+			for (int dir = 0; dir < 4; dir++) {
+				int next = graph.getNeighbour(tile, dir);
+				if (next >= 0 && !affected[next] && dist[next] == d
+						&& !isSupported(next)) {
+					affected[next] = true;
+					queue[tail++] = next;
+				}
+			}
+		}
+		int count = tail;
+
+		int seedCount = 0;
+		for (int i = 0; i < count; i++) {
+			int tile = queue[i];
+			int best = DistanceTable.UNREACHABLE;
+			for (int dir = 0; dir < 4; dir++) {
+				int next = graph.getNeighbour(tile, dir);
+				if (next >= 0 && !affected[next]
+						&& dist[next] != DistanceTable.UNREACHABLE) {
+					best = Math.min(best, dist[next] + 1);
+				}
+			}
+			if (best != DistanceTable.UNREACHABLE) {
+				seeds[seedCount++] = (long) best << 32 | tile;
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			dist[queue[i]] = DistanceTable.UNREACHABLE;
+			affected[queue[i]] = false;
+		}
+		Arrays.sort(seeds, 0, seedCount);
+
+		// Merge the sorted seeds with the search queue, which stays sorted
+		head = 0;
+		tail = 0;
+		int s = 0;
+		while (s < seedCount || head < tail) {
+			int tile;
+			if (head == tail
+					|| (s < seedCount && (int) (seeds[s] >>> 32) <= dist[queue[head]])) {
+				tile = (int) seeds[s];
+				int d = (int) (seeds[s++] >>> 32);
+				if (d >= dist[tile]) {
+					continue;
+				}
+				dist[tile] = d;
+			} else {
+				tile = queue[head++];
+			}
+			int d = dist[tile] + 1;
+			for (int dir = 0; dir < 4; dir++) {
+				int next = graph.getNeighbour(tile, dir);
+				if (next >= 0 && dist[next] > d) {
+					dist[next] = d;
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return boolean whether an unaffected neighbour is one step closer
+	 */
+	private boolean isSupported(int tile) {
+		int d = dist[tile] - 1;
+		for (int dir = 0; dir < 4; dir++) {
+			int next = graph.getNeighbour(tile, dir);
+			if (next >= 0 && !affected[next] && dist[next] == d) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param tile
+	 * @return int walking distance to the nearest dot, or UNREACHABLE
+	 */
+	public int distance(int tile) {
+		return tile < 0 ? DistanceTable.UNREACHABLE : dist[tile];
+	}
+}
@@ -0,0 +1,105 @@
+import com.orbischallenge.pacman.api.common.MazeItem;
+
+/**
+ * A two dimensional binary indexed tree over the maze grid counting the dots
+ * and power dots left. It follows MazeSnapshot changes, and counts the dots
+ * in any rectangle in O(log W * log H), which PacPlayer uses to tell which
+ * side of the maze has more dots left.
+ */
+public class DotFenwick implements MazeSnapshot.ItemListener {
+
+	private final MazeGraph graph;
+	private final int width;
+	private final int height;
+	// 1-based, (width + 1) * (height + 1) entries
+	private final int[] tree;
+
+	public DotFenwick(MazeGraph graph, MazeSnapshot snapshot) {
+		this.graph = graph;
+		this.width = graph.getWidth();
+		this.height = graph.getHeight();
+		this.tree = new int[(width + 1) * (height + 1)];
+		// Fill in the counts, then push each one up to its parent once
+		for (int tile = 0; tile < snapshot.getTileCount(); tile++) {
+			if (snapshot.isDot(tile) || snapshot.isPowerDot(tile)) {
+				tree[index(graph.tileX(tile) + 1, graph.tileY(tile) + 1)] = 1;
+			}
+		}
+		for (int y = 1; y <= height; y++) {
+			for (int x = 1; x <= width; x++) {
+				int px = x + (x & -x);
+				if (px <= width) {
+					tree[index(px, y)] += tree[index(x, y)];
+				}
+			}
+		}
+		for (int y = 1; y <= height; y++) {
+			int py = y + (y & -y);
+			if (py <= height) {
+				for (int x = 1; x <= width; x++) {
+					tree[index(x, py)] += tree[index(x, y)];
+				}
+			}
+		}
+		snapshot.addListener(this);
+	}
+
+	private int index(int x, int y) {
+		return y * (width + 1) + x;
+	}
+
+	@Override
+	public void itemChanged(int tile, MazeItem old, MazeItem item) {
+		int delta = (isFood(item) ? 1 : 0) - (isFood(old) ? 1 : 0);
+		if (delta != 0) {
+			add(graph.tileX(tile), graph.tileY(tile), delta);
+		}
+	}
+
+	private static boolean isFood(MazeItem item) {
+		return item == MazeItem.DOT || item == MazeItem.POWER_DOT;
+	}
+
+	private void add(int x, int y, int delta) {
+		for (int i = y + 1; i <= height; i += i & -i) {
+			for (int j = x + 1; j <= width; j += j & -j) {
+				tree[index(j, i)] += delta;
+			}
+		}
+	}
+
+	/**
+	 * @return int dots in the rectangle from (0, 0) to (x, y) inclusive
+	 */
+	private int prefix(int x, int y) {
+		int sum = 0;
+		for (int i = Math.min(y, height - 1) + 1; i > 0; i -= i & -i) {
+			for (int j = Math.min(x, width - 1) + 1; j > 0; j -= j & -j) {
+				sum += tree[index(j, i)];
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Count the dots and power dots in a rectangle of tiles. The rectangle is
+	 * clipped to the maze.
+	 *
+	 * @param x0
+	 * @param y0
+	 * @param x1
+	 *            - inclusive
+	 * @param y1
+	 *            - inclusive
+	 * @return int
+	 */
+	public int count(int x0, int y0, int x1, int y1) {
+		x0 = Math.max(x0, 0);
+		y0 = Math.max(y0, 0);
+		if (x0 > x1 || y0 > y1 || x1 < 0 || y1 < 0) {
+			return 0;
+		}
+		return prefix(x1, y1) - prefix(x0 - 1, y1) - prefix(x1, y0 - 1)
+				+ prefix(x0 - 1, y0 - 1);
+	}
+}
@@ -0,0 +1,120 @@
+import com.orbischallenge.pacman.api.common.MazeItem;
+
+/**
+ * A bucketed grid over the dots and power dots left in the maze, for finding
+ * the ones nearest to a tile. The maze is cut into BUCKET x BUCKET squares
+ * that keep a count of their dots. A query looks at rings of squares around
+ * the tile, skipping empty ones, and stops once no square further out can
+ * hold anything nearer. Distances are manhattan distances on the grid.
+ */
+public class DotGrid implements MazeSnapshot.ItemListener {
+
+	private static final int BUCKET = 4;
+
+	private final MazeGraph graph;
+	private final MazeSnapshot snapshot;
+	private final int bucketsX;
+	private final int bucketsY;
+	private final int[] counts;
+
+	// Manhattan distances of the best tiles found by the last query
+	private int[] bestDist = new int[0];
+
+	public DotGrid(MazeGraph graph, MazeSnapshot snapshot) {
+		this.graph = graph;
+		this.snapshot = snapshot;
+		this.bucketsX = (graph.getWidth() + BUCKET - 1) / BUCKET;
+		this.bucketsY = (graph.getHeight() + BUCKET - 1) / BUCKET;
+		this.counts = new int[bucketsX * bucketsY];
+		for (int tile = 0; tile < snapshot.getTileCount(); tile++) {
+			if (isFood(tile)) {
+				counts[bucketOf(tile)]++;
+			}
+		}
+		snapshot.addListener(this);
+	}
+
+	private int bucketOf(int tile) {
+		return graph.tileY(tile) / BUCKET * bucketsX + graph.tileX(tile)
+				/ BUCKET;
+	}
+
+	private boolean isFood(int tile) {
+		return snapshot.isDot(tile) || snapshot.isPowerDot(tile);
+	}
+
+	private static boolean isFood(MazeItem item) {
+		return item == MazeItem.DOT || item == MazeItem.POWER_DOT;
+	}
+
+	@Override
+	public void itemChanged(int tile, MazeItem old, MazeItem item) {
+		counts[bucketOf(tile)] += (isFood(item) ? 1 : 0) - (isFood(old) ? 1 : 0);
+	}
+
+	/**
+	 * Find the k dots or power dots nearest to a tile.
+	 *
+	 * @param x
+	 * @param y
+	 * @param k
+	 * @param tiles
+	 *            - filled with the tile IDs found, nearest first
+	 * @return int number of tiles found, at most k
+	 */
+	public int nearest(int x, int y, int k, int[] tiles) {
+		if (bestDist.length < k) {
+			bestDist = new int[k];
+		}
+		int found = 0;
+		int qx = x / BUCKET, qy = y / BUCKET;
+		int maxRing = Math.max(bucketsX, bucketsY);
+		for (int ring = 0; ring <= maxRing; ring++) {
+			// Every tile in this ring is at least this far away
+			if (found == k && ring > 0 && bestDist[k - 1] <= (ring - 1) * BUCKET) {
+				break;
+			}
+			for (int by = qy - ring; by <= qy + ring; by++) {
+				if (by < 0 || by >= bucketsY) {
+					continue;
+				}
+				boolean edgeRow = by == qy - ring || by == qy + ring;
+				int step = edgeRow || ring == 0 ? 1 : 2 * ring;
+				for (int bx = qx - ring; bx <= qx + ring; bx += step) {
+					if (bx >= 0 && bx < bucketsX && counts[by * bucketsX + bx] > 0) {
+						found = scanBucket(bx, by, x, y, k, tiles, found);
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	private int scanBucket(int bx, int by, int x, int y, int k, int[] tiles,
+			int found) {
+		int xEnd = Math.min((bx + 1) * BUCKET, graph.getWidth());
+		int yEnd = Math.min((by + 1) * BUCKET, graph.getHeight());
+		for (int ty = by * BUCKET; ty < yEnd; ty++) {
+			for (int tx = bx * BUCKET; tx < xEnd; tx++) {
+				int tile = graph.toTile(tx, ty);
+				if (!isFood(tile)) {
+					continue;
+				}
+				int d = Math.abs(tx - x) + Math.abs(ty - y);
+				if (found == k && d >= bestDist[k - 1]) {
+					continue;
+				}
+				// Insertion into the sorted best list
+				int i = found < k ? found++ : k - 1;
+				while (i > 0 && bestDist[i - 1] > d) {
+					bestDist[i] = bestDist[i - 1];
+					tiles[i] = tiles[i - 1];
+					i--;
+				}
+				bestDist[i] = d;
+				tiles[i] = tile;
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,125 @@
+import java.util.Arrays;
+
+/**
+ * The first MoveDir on a shortest path from every accessible tile to every
+ * other one. The row of a source cell lists the first move towards each
+ * target cell in cell order, and is run length encoded: neighbouring targets
+ * are mostly reached through the same first move, so a row shrinks to a few
+ * runs. A lookup is a binary search over the runs of one row.
+ * <p>
+ * The player doesn't ask for first moves, so MazeGraph only builds the table
+ * on the first firstMove() call and MazeStore doesn't save it.
+ */
+public class FirstMoveTable {
+
+	private final MazeGraph graph;
+	// Runs of source cell c are runOffset[c] to runOffset[c + 1]
+	private final int[] runOffset;
+	// First target cell of each run
+	private final int[] runStart;
+	// MoveDir ordinal of each run, -1 for the source itself and unreachable
+	// targets
+	private final byte[] runDir;
+
+	public FirstMoveTable(MazeGraph graph) {
+		this.graph = graph;
+		int cellCount = graph.getCellCount();
+		this.runOffset = new int[cellCount + 1];
+		int[] starts = new int[cellCount];
+		byte[] dirs = new byte[cellCount];
+		int runCount = 0;
+		byte[] firstDir = new byte[cellCount];
+		int[] queue = new int[cellCount];
+		for (int source = 0; source < cellCount; source++) {
+			bfs(source, firstDir, queue);
+			byte last = 0;
+			for (int target = 0; target < cellCount; target++) {
+				if (target > 0 && firstDir[target] == last) {
+					continue;
+				}
+				if (runCount == starts.length) {
+					starts = Arrays.copyOf(starts, runCount * 2);
+					dirs = Arrays.copyOf(dirs, runCount * 2);
+				}
+				last = firstDir[target];
+				starts[runCount] = target;
+				dirs[runCount++] = last;
+			}
+			runOffset[source + 1] = runCount;
+		}
+		this.runStart = Arrays.copyOf(starts, runCount);
+		this.runDir = Arrays.copyOf(dirs, runCount);
+	}
+
+	public static boolean fits(MazeGraph graph) {
+		return DistanceTable.fits(graph);
+	}
+
+	/**
+	 * Breadth first search from a source cell, handing every reached cell the
+	 * first move of the path it was reached by.
+	 */
+	private void bfs(int source, byte[] firstDir, int[] queue) {
+		Arrays.fill(firstDir, (byte) -2);
+		int head = 0, tail = 0;
+		int sourceTile = graph.getCellTile(source);
+		firstDir[source] = -1;
+		for (int dir = 0; dir < 4; dir++) {
+			int next = graph.getNeighbour(sourceTile, dir);
+			if (next >= 0 && firstDir[graph.getCell(next)] == -2) {
+				firstDir[graph.getCell(next)] = (byte) dir;
+				queue[tail++] = next;
+			}
+		}
+		while (head < tail) {
+			int tile = queue[head++];
+			byte dir = firstDir[graph.getCell(tile)];
+			for (int d = 0; d < 4; d++) {
+				int next = graph.getNeighbour(tile, d);
+				if (next >= 0 && firstDir[graph.getCell(next)] == -2) {
+					firstDir[graph.getCell(next)] = dir;
+					queue[tail++] = next;
+				}
+			}
+		}
+		for (int i = 0; i < firstDir.length; i++) {
+			if (firstDir[i] == -2) {
+				firstDir[i] = -1;
+			}
+		}
+	}
+
+	/**
+	 * @return int total number of runs over all rows
+	 */
+	public int getRunCount() {
+		return runStart.length;
+	}
+
+	/**
+	 * @param from
+	 *            - tile ID
+	 * @param to
+	 *            - tile ID
+	 * @return int MoveDir ordinal of the first step from one tile towards the
+	 *         other, or -1 if there is none
+	 */
+	public int firstMove(int from, int to) {
+		int fromCell = graph.getCell(from);
+		int toCell = graph.getCell(to);
+		if (fromCell < 0 || toCell < 0) {
+			return -1;
+		}
+		// Last run starting at or before toCell
+		int lo = runOffset[fromCell], hi = runOffset[fromCell + 1] - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (runStart[mid] <= toCell) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return runDir[lo];
+	}
+}
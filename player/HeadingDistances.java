@@ -0,0 +1,190 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Walking distances over the directed (tile, heading) state graph, where a
+ * mover can't turn back except at a dead end. This is how ghosts move between
+ * mode changes, so a ghost heading away from a tile takes longer to reach it
+ * than the plain tile distance says.
+ * <p>
+ * State s of a tile is cell * 4 + heading, the MoveDir ordinal it arrived
+ * with. For mazes up to MAX_CELLS the distance from every state to every
+ * cell is kept in a table, which MazeStore saves with the graph. Bigger mazes
+ * run a breadth first search over the states per query, which stops at the
+ * distance limit the caller asks about.
+ */
+public class HeadingDistances {
+
+	/**
+	 * Largest number of accessible tiles we build a table for, which keeps
+	 * the table under 16MB.
+	 */
+	public static final int MAX_CELLS = 1448;
+
+	private final MazeGraph graph;
+	private final int cellCount;
+	// State successors, 4 per state, -1 if there is none
+	private final int[] successors;
+	private ShortBuffer table;
+
+	// Scratch space of the searches, dist is valid while stamp matches
+	private final int[] dist;
+	private final int[] stamp;
+	private int currentStamp;
+	private final int[] queue;
+
+	public HeadingDistances(MazeGraph graph) {
+		this(graph, null);
+		if (fits(graph)) {
+			makeTable();
+		}
+	}
+
+	private HeadingDistances(MazeGraph graph, ShortBuffer table) {
+		this.graph = graph;
+		this.cellCount = graph.getCellCount();
+		int stateCount = cellCount * 4;
+		this.successors = new int[stateCount * 4];
+		this.dist = new int[stateCount];
+		this.stamp = new int[stateCount];
+		this.queue = new int[stateCount];
+		this.table = table;
+		makeSuccessors();
+	}
+
+	public static boolean fits(MazeGraph graph) {
+		return graph.getCellCount() <= MAX_CELLS;
+	}
+
+	/**
+	 * Save the table, the successors are cheap to build again.
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeBoolean(table != null);
+		if (table != null) {
+			out.writeInt(cellCount);
+			for (int i = 0; i < cellCount * 4 * cellCount; i++) {
+				out.writeShort(table.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Read the distances without copying the table, the result keeps a view
+	 * of the buffer.
+	 */
+	static HeadingDistances read(ByteBuffer in, MazeGraph graph) {
+		if (in.get() == 0) {
+			return new HeadingDistances(graph, null);
+		}
+		int cellCount = in.getInt();
+		long size = (long) cellCount * 4 * cellCount * 2;
+		MazeStore.check(cellCount == graph.getCellCount()
+				&& size <= in.remaining());
+		ByteBuffer view = in.slice();
+		view.limit((int) size);
+		in.position(in.position() + (int) size);
+		return new HeadingDistances(graph, view.asShortBuffer());
+	}
+
+	private void makeSuccessors() {
+		Arrays.fill(successors, -1);
+		for (int cell = 0; cell < cellCount; cell++) {
+			int tile = graph.getCellTile(cell);
+			for (int heading = 0; heading < 4; heading++) {
+				int state = cell * 4 + heading;
+				int back = MazeGraph.opposite(heading);
+				int count = 0;
+				for (int dir = 0; dir < 4; dir++) {
+					int next = graph.getNeighbour(tile, dir);
+					if (dir != back && next >= 0) {
+						successors[state * 4 + count++] = graph.getCell(next) * 4 + dir;
+					}
+				}
+				// Dead ends are the only place to turn back
+				int next = graph.getNeighbour(tile, back);
+				if (count == 0 && next >= 0) {
+					successors[state * 4] = graph.getCell(next) * 4 + back;
+				}
+			}
+		}
+	}
+
+	private void makeTable() {
+		short[] values = new short[cellCount * 4 * cellCount];
+		int[] cellDist = new int[cellCount];
+		for (int state = 0; state < cellCount * 4; state++) {
+			Arrays.fill(cellDist, -1);
+			search(state, -1, Integer.MAX_VALUE, cellDist);
+			int row = state * cellCount;
+			for (int cell = 0; cell < cellCount; cell++) {
+				values[row + cell] = (short) cellDist[cell];
+			}
+		}
+		table = ShortBuffer.wrap(values);
+	}
+
+	/**
+	 * Breadth first search over the states from a source state, which doesn't
+	 * go further than limit. Stops when goalCell is reached, or fills
+	 * cellDist with the first arrival at every cell when goalCell is -1.
+	 *
+	 * @return int distance to goalCell, or -1
+	 */
+	private int search(int source, int goalCell, int limit, int[] cellDist) {
+		currentStamp++;
+		int head = 0, tail = 0;
+		queue[tail++] = source;
+		dist[source] = 0;
+		stamp[source] = currentStamp;
+		while (head < tail) {
+			int state = queue[head++];
+			int cell = state >>> 2;
+			if (cell == goalCell) {
+				return dist[state];
+			}
+			if (cellDist != null && cellDist[cell] < 0) {
+				cellDist[cell] = dist[state];
+			}
+			if (dist[state] >= limit) {
+				continue;
+			}
+			for (int i = state * 4; i < state * 4 + 4; i++) {
+				int next = successors[i];
+				if (next >= 0 && stamp[next] != currentStamp) {
+					stamp[next] = currentStamp;
+					dist[next] = dist[state] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param tile
+	 *            - tile ID of the mover
+	 * @param heading
+	 *            - MoveDir ordinal the mover is heading in
+	 * @param target
+	 *            - tile ID
+	 * @param limit
+	 *            - distances above it may be reported as UNREACHABLE
+	 * @return int steps until the mover can be on target without turning
+	 *         back, or DistanceTable.UNREACHABLE
+	 */
+	public int distance(int tile, int heading, int target, int limit) {
+		int cell = graph.getCell(tile);
+		int targetCell = graph.getCell(target);
+		if (cell < 0 || targetCell < 0 || heading < 0) {
+			return DistanceTable.UNREACHABLE;
+		}
+		int state = cell * 4 + heading;
+		int d = table != null ? table.get(state * cellCount + targetCell)
+				: search(state, targetCell, limit, null);
+		return d < 0 ? DistanceTable.UNREACHABLE : d;
+	}
+}
@@ -0,0 +1,424 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Yen's k shortest simple paths over the node graph. The start and goal tiles
+ * don't have to be nodes: a tile inside a corridor becomes a virtual node
+ * joined to the two ends of its segment, and that segment's own edges are left
+ * out of the query so every path stays simple. Each query is bounded by a
+ * number of settled nodes and a time budget, and returns the paths found so
+ * far once either runs out.
+ * <p>
+ * Only the arrays of the Dijkstra runs are kept between queries. Every query
+ * still allocates its candidate paths, the edge arrays of each spur and the
+ * tile arrays it returns, so it is meant for an occasional look at
+ * alternative routes rather than every frame. The player doesn't use it,
+ * MazeGraph.getShortestPaths is there for callers that want it.
+ */
+public class KShortestPaths {
+
+	private static final int MAX_VIRTUAL_EDGES = 5;
+
+	private final MazeGraph graph;
+	private final NodeGraph nodeGraph;
+	private final SegmentIndex segments;
+
+	private final int edgeCount;
+	private final int nodeCount;
+	// Virtual nodes for a start or goal tile which isn't a node
+	private final int startNode;
+	private final int goalNode;
+
+	private final int[] edgeSource;
+
+	// Virtual edges of the current query, as slices of node graph edges
+	private final int[] vFrom = new int[MAX_VIRTUAL_EDGES];
+	private final int[] vTo = new int[MAX_VIRTUAL_EDGES];
+	private final int[] vEdge = new int[MAX_VIRTUAL_EDGES];
+	private final int[] vStart = new int[MAX_VIRTUAL_EDGES];
+	private final int[] vEnd = new int[MAX_VIRTUAL_EDGES];
+	private int vCount;
+
+	private final boolean[] disabledEdge;
+	private final boolean[] removedEdge;
+	private final boolean[] removedNode;
+
+	// Dijkstra state, reused between runs and queries
+	private final int[] dist;
+	private final int[] prevEdge;
+	private final boolean[] settled;
+	private int[] heapNode;
+	private int[] heapDist;
+	private int heapSize;
+
+	private int settledBudget;
+	private long deadline;
+	private boolean exhausted;
+
+	public KShortestPaths(MazeGraph graph) {
+		this.graph = graph;
+		this.nodeGraph = graph.getNodeGraph();
+		this.segments = graph.getSegmentIndex();
+		this.edgeCount = nodeGraph.getEdgeCount();
+		this.nodeCount = nodeGraph.getNodeCount();
+		this.startNode = nodeCount;
+		this.goalNode = nodeCount + 1;
+		this.edgeSource = new int[edgeCount];
+		for (int node = 0; node < nodeCount; node++) {
+			for (int edge = nodeGraph.getEdgeStart(node); edge < nodeGraph
+					.getEdgeEnd(node); edge++) {
+				edgeSource[edge] = node;
+			}
+		}
+		this.disabledEdge = new boolean[edgeCount + MAX_VIRTUAL_EDGES];
+		this.removedEdge = new boolean[edgeCount + MAX_VIRTUAL_EDGES];
+		this.removedNode = new boolean[nodeCount + 2];
+		this.dist = new int[nodeCount + 2];
+		this.prevEdge = new int[nodeCount + 2];
+		this.settled = new boolean[nodeCount + 2];
+		this.heapNode = new int[nodeCount + 2];
+		this.heapDist = new int[nodeCount + 2];
+	}
+
+	private static class Path {
+		final int[] edges;
+		final int cost;
+
+		Path(int[] edges, int cost) {
+			this.edges = edges;
+			this.cost = cost;
+		}
+	}
+
+	/**
+	 * Find up to k shortest simple paths from start to goal, in ascending
+	 * length.
+	 *
+	 * @param start
+	 *            - the starting tile, doesn't have to be a node
+	 * @param goal
+	 *            - the tile to look for
+	 * @param k
+	 *            - maximum number of paths
+	 * @param nodeBudget
+	 *            - maximum number of nodes settled over the whole query
+	 * @param timeBudgetNanos
+	 *            - maximum time spent on the query
+	 * @return List<int[]> paths of tile IDs, from start (exclusive) to goal
+	 *         (inclusive)
+	 */
+	public List<int[]> query(int start, int goal, int k, int nodeBudget,
+			long timeBudgetNanos) {
+		List<int[]> result = new ArrayList<int[]>();
+		if (k <= 0 || !graph.isAccessible(start) || !graph.isAccessible(goal)) {
+			return result;
+		}
+		if (start == goal) {
+			result.add(new int[0]);
+			return result;
+		}
+		settledBudget = nodeBudget;
+		deadline = System.nanoTime() + timeBudgetNanos;
+		exhausted = false;
+		int source = setUpEnd(start, true, goal);
+		int target = setUpEnd(goal, false, start);
+		if (source < 0 || target < 0) {
+			return result;
+		}
+
+		List<Path> found = new ArrayList<Path>();
+		List<Path> candidates = new ArrayList<Path>();
+		Arrays.fill(removedEdge, false);
+		Arrays.fill(removedNode, false);
+		int[] first = dijkstra(source, target);
+		if (first == null) {
+			return result;
+		}
+		found.add(new Path(first, cost(first)));
+		while (found.size() < k && !exhausted) {
+			Path last = found.get(found.size() - 1);
+			int spurNode = source;
+			for (int i = 0; i < last.edges.length && !exhausted; i++) {
+				Arrays.fill(removedEdge, false);
+				Arrays.fill(removedNode, false);
+				for (Path path : found) {
+					if (path.edges.length > i && samePrefix(path.edges, last.edges, i)) {
+						removedEdge[path.edges[i]] = true;
+					}
+				}
+				int node = source;
+				for (int j = 0; j < i; j++) {
+					removedNode[node] = true;
+					node = edgeTarget(last.edges[j]);
+				}
+				int[] spur = dijkstra(spurNode, target);
+				if (spur != null) {
+					int[] edges = Arrays.copyOf(last.edges, i + spur.length);
+					System.arraycopy(spur, 0, edges, i, spur.length);
+					if (!contains(found, edges) && !contains(candidates, edges)) {
+						candidates.add(new Path(edges, cost(edges)));
+					}
+				}
+				spurNode = edgeTarget(last.edges[i]);
+			}
+			if (candidates.isEmpty()) {
+				break;
+			}
+			int best = 0;
+			for (int c = 1; c < candidates.size(); c++) {
+				if (candidates.get(c).cost < candidates.get(best).cost) {
+					best = c;
+				}
+			}
+			found.add(candidates.remove(best));
+		}
+		for (Path path : found) {
+			result.add(toTiles(path.edges));
+		}
+		return result;
+	}
+
+	/**
+	 * Prepare the start or goal end of a query. A node tile is used directly.
+	 * A corridor tile becomes a virtual node joined to the ends of its
+	 * segment, whose edges are disabled.
+	 *
+	 * @return int the node ID to search from or to, or -1 if the tile can't
+	 *         be placed in the graph
+	 */
+	private int setUpEnd(int tile, boolean isStart, int otherTile) {
+		if (isStart) {
+			vCount = 0;
+			Arrays.fill(disabledEdge, false);
+		}
+		int node = nodeGraph.getNode(tile);
+		if (node >= 0) {
+			return node;
+		}
+		int seg = segments.getSegment(tile);
+		if (seg < 0) {
+			return -1;
+		}
+		int ab = segments.getEdgeAB(seg);
+		int ba = segments.getEdgeBA(seg);
+		if (ba < 0) {
+			return -1;
+		}
+		disabledEdge[ab] = true;
+		disabledEdge[ba] = true;
+		int length = segments.getLength(seg);
+		int offset = segments.getOffset(tile);
+		int nodeA = segments.getNodeA(seg);
+		int nodeB = segments.getNodeB(seg);
+		boolean sameSegment = segments.getSegment(otherTile) == seg;
+		int otherOffset = sameSegment ? segments.getOffset(otherTile) : -1;
+		if (isStart) {
+			// Towards A unless the goal sits between us and A
+			if (!sameSegment || otherOffset > offset) {
+				addVirtual(startNode, nodeA, ba, length - offset, length + 1);
+			}
+			if (!sameSegment || otherOffset < offset) {
+				addVirtual(startNode, nodeB, ab, offset + 1, length + 1);
+			}
+			return startNode;
+		}
+		if (sameSegment) {
+			// Straight along the corridor from the start
+			if (otherOffset < offset) {
+				addVirtual(startNode, goalNode, ab, otherOffset + 1, offset + 1);
+			} else {
+				addVirtual(startNode, goalNode, ba, length - otherOffset,
+						length - offset);
+			}
+		}
+		// Coming in from A unless the start sits between A and us
+		if (!sameSegment || otherOffset > offset) {
+			addVirtual(nodeA, goalNode, ab, 0, offset + 1);
+		}
+		if (!sameSegment || otherOffset < offset) {
+			addVirtual(nodeB, goalNode, ba, 0, length - offset);
+		}
+		return goalNode;
+	}
+
+	private void addVirtual(int from, int to, int edge, int start, int end) {
+		vFrom[vCount] = from;
+		vTo[vCount] = to;
+		vEdge[vCount] = edge;
+		vStart[vCount] = start;
+		vEnd[vCount] = end;
+		vCount++;
+	}
+
+	private int edgeTarget(int edge) {
+		return edge < edgeCount ? nodeGraph.getTarget(edge) : vTo[edge
+				- edgeCount];
+	}
+
+	private int edgeCost(int edge) {
+		return edge < edgeCount ? nodeGraph.getLength(edge) : vEnd[edge
+				- edgeCount]
+				- vStart[edge - edgeCount];
+	}
+
+	private int cost(int[] edges) {
+		int cost = 0;
+		for (int edge : edges) {
+			cost += edgeCost(edge);
+		}
+		return cost;
+	}
+
+	private static boolean samePrefix(int[] a, int[] b, int length) {
+		for (int i = 0; i < length; i++) {
+			if (a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean contains(List<Path> paths, int[] edges) {
+		for (Path path : paths) {
+			if (Arrays.equals(path.edges, edges)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int[] toTiles(int[] edges) {
+		int length = cost(edges);
+		int[] tiles = new int[length];
+		int size = 0;
+		for (int edge : edges) {
+			if (edge < edgeCount) {
+				nodeGraph.copyTiles(edge, nodeGraph.getLength(edge), tiles, size);
+				size += nodeGraph.getLength(edge);
+			} else {
+				int v = edge - edgeCount;
+				for (int i = vStart[v]; i < vEnd[v]; i++) {
+					tiles[size++] = nodeGraph.getTile(vEdge[v], i);
+				}
+			}
+		}
+		return tiles;
+	}
+
+	/**
+	 * Shortest path avoiding removed nodes and edges.
+	 *
+	 * @return int[] the edges of the path, or null if there is none or the
+	 *         budget ran out
+	 */
+	private int[] dijkstra(int source, int target) {
+		Arrays.fill(dist, Integer.MAX_VALUE);
+		Arrays.fill(settled, false);
+		heapSize = 0;
+		dist[source] = 0;
+		prevEdge[source] = -1;
+		push(source, 0);
+		while (heapSize > 0) {
+			int node = heapNode[0];
+			pop();
+			if (settled[node]) {
+				continue;
+			}
+			settled[node] = true;
+			if (node == target) {
+				return trace(source, target);
+			}
+			if (--settledBudget < 0 || System.nanoTime() > deadline) {
+				exhausted = true;
+				return null;
+			}
+			if (node < nodeCount) {
+				for (int edge = nodeGraph.getEdgeStart(node); edge < nodeGraph
+						.getEdgeEnd(node); edge++) {
+					relax(node, edge);
+				}
+			}
+			for (int v = 0; v < vCount; v++) {
+				if (vFrom[v] == node) {
+					relax(node, edgeCount + v);
+				}
+			}
+		}
+		return null;
+	}
+
+	private void relax(int node, int edge) {
+		if (disabledEdge[edge] || removedEdge[edge]) {
+			return;
+		}
+		int next = edgeTarget(edge);
+		if (removedNode[next] || settled[next]) {
+			return;
+		}
+		int d = dist[node] + edgeCost(edge);
+		if (d < dist[next]) {
+			dist[next] = d;
+			prevEdge[next] = edge;
+			push(next, d);
+		}
+	}
+
+	private int[] trace(int source, int target) {
+		int length = 0;
+		for (int node = target; node != source; node = edgeFrom(prevEdge[node])) {
+			length++;
+		}
+		int[] edges = new int[length];
+		for (int node = target; node != source; node = edgeFrom(prevEdge[node])) {
+			edges[--length] = prevEdge[node];
+		}
+		return edges;
+	}
+
+	private int edgeFrom(int edge) {
+		return edge < edgeCount ? edgeSource[edge] : vFrom[edge - edgeCount];
+	}
+
+	private void push(int node, int d) {
+		if (heapSize == heapNode.length) {
+			heapNode = Arrays.copyOf(heapNode, heapSize * 2);
+			heapDist = Arrays.copyOf(heapDist, heapSize * 2);
+		}
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (heapDist[parent] <= d) {
+				break;
+			}
+			heapNode[i] = heapNode[parent];
+			heapDist[i] = heapDist[parent];
+			i = parent;
+		}
+		heapNode[i] = node;
+		heapDist[i] = d;
+	}
+
+	private void pop() {
+		int node = heapNode[--heapSize];
+		int d = heapDist[heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && heapDist[child + 1] < heapDist[child]) {
+				child++;
+			}
+			if (heapDist[child] >= d) {
+				break;
+			}
+			heapNode[i] = heapNode[child];
+			heapDist[i] = heapDist[child];
+			i = child;
+		}
+		heapNode[i] = node;
+		heapDist[i] = d;
+	}
+}
@@ -0,0 +1,284 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Point to point walking distance by A* over the NodeGraph, guided by ALT
+ * (A*, landmarks, triangle inequality) bounds. A few landmark tiles are
+ * picked far apart, and a breadth first search from each gives its distance
+ * to every cell. For any tile n and goal g, |d(L, g) - d(L, n)| is then a
+ * lower bound of d(n, g) for every landmark L, which keeps the search close
+ * to the shortest path. Memory is linear in cells times landmarks, for mazes
+ * too big even for a DistanceOracle.
+ */
+public class LandmarkSearch {
+
+	public static final int LANDMARKS = 8;
+
+	private final MazeGraph graph;
+	private final NodeGraph nodeGraph;
+	private final SegmentIndex segments;
+	private final int[][] landmarkDist;
+
+	// Reusable search state, entries are valid while stamp matches
+	private final int[] g;
+	private final int[] h;
+	private final int[] stamp;
+	private int currentStamp;
+	private long[] heap;
+
+	// The goal tile and the cost to it from each of its nodes
+	private int goalTile;
+	private final int[] goalNode = new int[2];
+	private final int[] goalCost = new int[2];
+	private int goalNodes;
+	private final int[] startNode = new int[2];
+	private final int[] startCost = new int[2];
+
+	public LandmarkSearch(MazeGraph graph) {
+		this(graph, pickLandmarks(graph));
+	}
+
+	private LandmarkSearch(MazeGraph graph, int[][] landmarkDist) {
+		this.graph = graph;
+		this.nodeGraph = graph.getNodeGraph();
+		this.segments = graph.getSegmentIndex();
+		this.landmarkDist = landmarkDist;
+		int nodeCount = nodeGraph.getNodeCount();
+		this.g = new int[nodeCount];
+		this.h = new int[nodeCount];
+		this.stamp = new int[nodeCount];
+		this.heap = new long[nodeGraph.getEdgeCount() + 2];
+	}
+
+	/**
+	 * Farthest point selection: each landmark is the cell farthest from the
+	 * ones already chosen.
+	 *
+	 * @return int[][] distance from each landmark to every cell
+	 */
+	private static int[][] pickLandmarks(MazeGraph graph) {
+		int cellCount = graph.getCellCount();
+		int count = Math.min(LANDMARKS, cellCount);
+		int[][] landmarkDist = new int[count][];
+		int[] minDist = new int[cellCount];
+		Arrays.fill(minDist, Integer.MAX_VALUE);
+		int[] queue = new int[cellCount];
+		int next = farthest(bfs(graph, 0, queue), minDist);
+		Arrays.fill(minDist, Integer.MAX_VALUE);
+		for (int i = 0; i < count; i++) {
+			landmarkDist[i] = bfs(graph, next, queue);
+			next = farthest(landmarkDist[i], minDist);
+		}
+		return landmarkDist;
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(landmarkDist.length);
+		for (int[] dist : landmarkDist) {
+			MazeStore.writeInts(out, dist);
+		}
+	}
+
+	static LandmarkSearch read(ByteBuffer in, MazeGraph graph) {
+		int count = in.getInt();
+		MazeStore.check(count >= 0 && count <= LANDMARKS);
+		int[][] landmarkDist = new int[count][];
+		for (int i = 0; i < count; i++) {
+			landmarkDist[i] = MazeStore.readInts(in);
+			MazeStore.check(landmarkDist[i].length == graph.getCellCount());
+		}
+		return new LandmarkSearch(graph, landmarkDist);
+	}
+
+	private static int farthest(int[] dist, int[] minDist) {
+		int best = -1;
+		for (int cell = 0; cell < dist.length; cell++) {
+			if (dist[cell] >= 0 && dist[cell] < minDist[cell]) {
+				minDist[cell] = dist[cell];
+			}
+			if (minDist[cell] != Integer.MAX_VALUE
+					&& (best < 0 || minDist[cell] > minDist[best])) {
+				best = cell;
+			}
+		}
+		return Math.max(best, 0);
+	}
+
+	private static int[] bfs(MazeGraph graph, int source, int[] queue) {
+		int[] dist = new int[graph.getCellCount()];
+		Arrays.fill(dist, -1);
+		int head = 0, tail = 0;
+		queue[tail++] = graph.getCellTile(source);
+		dist[source] = 0;
+		while (head < tail) {
+			int tile = queue[head++];
+			int d = dist[graph.getCell(tile)] + 1;
+			for (int dir = 0; dir < 4; dir++) {
+				int n = graph.getNeighbour(tile, dir);
+				if (n >= 0 && dist[graph.getCell(n)] < 0) {
+					dist[graph.getCell(n)] = d;
+					queue[tail++] = n;
+				}
+			}
+		}
+		return dist;
+	}
+
+	/**
+	 * @return int lower bound of the distance between two cells
+	 */
+	private int bound(int cellA, int cellB) {
+		int best = 0;
+		for (int[] dist : landmarkDist) {
+			int a = dist[cellA], b = dist[cellB];
+			if (a >= 0 && b >= 0) {
+				best = Math.max(best, Math.abs(a - b));
+			}
+		}
+		return best;
+	}
+
+	private int heuristic(int node) {
+		if (stamp[node] != currentStamp) {
+			stamp[node] = currentStamp;
+			g[node] = Integer.MAX_VALUE;
+			h[node] = bound(graph.getCell(nodeGraph.getNodeTile(node)),
+					graph.getCell(goalTile));
+		}
+		return h[node];
+	}
+
+	/**
+	 * @param from
+	 *            - tile ID
+	 * @param to
+	 *            - tile ID
+	 * @return int walking distance, UNREACHABLE, or -1 if a tile is on no
+	 *         segment and the search can't tell
+	 */
+	public int distance(int from, int to) {
+		if (!graph.isAccessible(from) || !graph.isAccessible(to)) {
+			return DistanceTable.UNREACHABLE;
+		}
+		if (from == to) {
+			return 0;
+		}
+		int fromSeg = nodeGraph.getNode(from) < 0 ? segments.getSegment(from) : -1;
+		int toSeg = nodeGraph.getNode(to) < 0 ? segments.getSegment(to) : -1;
+		if ((fromSeg < 0 && nodeGraph.getNode(from) < 0)
+				|| (toSeg < 0 && nodeGraph.getNode(to) < 0)
+				|| (fromSeg >= 0 && segments.getNodeA(fromSeg) < 0)
+				|| (toSeg >= 0 && segments.getNodeA(toSeg) < 0)) {
+			return -1;
+		}
+		if (++currentStamp == 0) {
+			Arrays.fill(stamp, 0);
+			currentStamp = 1;
+		}
+		goalTile = to;
+		goalNodes = ends(to, toSeg, goalNode, goalCost);
+
+		int best = Integer.MAX_VALUE;
+		if (fromSeg >= 0 && fromSeg == toSeg) {
+			best = Math.abs(segments.getOffset(from) - segments.getOffset(to));
+		}
+		int size = 0;
+		int starts = ends(from, fromSeg, startNode, startCost);
+		for (int i = 0; i < starts; i++) {
+			int node = startNode[i];
+			int f = startCost[i] + heuristic(node);
+			if (startCost[i] < g[node]) {
+				g[node] = startCost[i];
+				size = push(size, (long) f << 32 | node);
+			}
+		}
+		while (size > 0) {
+			long top = heap[0];
+			heap[0] = heap[--size];
+			siftDown(size);
+			int node = (int) top;
+			int f = (int) (top >>> 32);
+			if (f >= best) {
+				break;
+			}
+			if (f != g[node] + h[node]) {
+				continue;
+			}
+			for (int i = 0; i < goalNodes; i++) {
+				if (goalNode[i] == node) {
+					best = Math.min(best, g[node] + goalCost[i]);
+				}
+			}
+			for (int edge = nodeGraph.getEdgeStart(node); edge < nodeGraph
+					.getEdgeEnd(node); edge++) {
+				int target = nodeGraph.getTarget(edge);
+				int hTarget = heuristic(target);
+				int ng = g[node] + nodeGraph.getLength(edge);
+				if (ng < g[target]) {
+					g[target] = ng;
+					size = push(size, (long) (ng + hTarget) << 32 | target);
+				}
+			}
+		}
+		return best == Integer.MAX_VALUE ? DistanceTable.UNREACHABLE : best;
+	}
+
+	/**
+	 * The nodes a tile reaches first and the steps to each: the tile itself
+	 * for a node, or both ends of its segment.
+	 */
+	private int ends(int tile, int seg, int[] node, int[] cost) {
+		if (seg < 0) {
+			node[0] = nodeGraph.getNode(tile);
+			cost[0] = 0;
+			return 1;
+		}
+		node[0] = segments.getNodeA(seg);
+		cost[0] = segments.getOffset(tile) + 1;
+		node[1] = segments.getNodeB(seg);
+		cost[1] = segments.getLength(seg) - segments.getOffset(tile);
+		return 2;
+	}
+
+	private int push(int size, long value) {
+		if (size == heap.length) {
+			heap = Arrays.copyOf(heap, size * 2);
+		}
+		int i = size;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent] <= value) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = value;
+		return size + 1;
+	}
+
+	private void siftDown(int size) {
+		if (size == 0) {
+			return;
+		}
+		long value = heap[0];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && heap[child + 1] < heap[child]) {
+				child++;
+			}
+			if (heap[child] >= value) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = value;
+	}
+}
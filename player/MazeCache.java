@@ -0,0 +1,123 @@
+import com.orbischallenge.pacman.api.common.MazeItem;
+import com.orbischallenge.pacman.api.java.Maze;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the MazeGraph built for each wall layout seen in this process, so a
+ * level with a layout we have already seen reuses its graph and every table
+ * derived from it instead of building them again. Layouts not seen in this
+ * process are looked up in MazeStore before being built.
+ */
+public class MazeCache {
+
+	private static final int MAX_ENTRIES = 8;
+
+	private static final Map<Long, Entry> CACHE = new LinkedHashMap<Long, Entry>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private static class Entry {
+		final byte[] layout;
+		final MazeGraph graph;
+
+		Entry(byte[] layout, MazeGraph graph) {
+			this.layout = layout;
+			this.graph = graph;
+		}
+	}
+
+	private MazeCache() {
+	}
+
+	/**
+	 * Get the graph for a maze, building it only if its layout is in neither
+	 * this cache nor MazeStore.
+	 *
+	 * @param maze
+	 * @return MazeGraph
+	 */
+	public static MazeGraph getGraph(Maze maze) {
+		byte[] layout = layout(maze.toMatrix());
+		long fingerprint = fingerprint(layout);
+		Entry entry = CACHE.get(fingerprint);
+		// Compare the layouts too, so a hash collision can't hand us the
+		// wrong graph
+		if (entry != null && Arrays.equals(entry.layout, layout)) {
+			return entry.graph;
+		}
+		MazeGraph graph = MazeStore.load(fingerprint, layout);
+		if (graph == null) {
+			graph = new MazeGraph(maze);
+			MazeStore.save(fingerprint, layout, graph);
+		}
+		CACHE.put(fingerprint, new Entry(layout, graph));
+		return graph;
+	}
+
+	/**
+	 * Reduce a maze matrix to its structure: the dimensions, then one byte per
+	 * tile telling walls, doors, teleports and open tiles apart. Dots don't
+	 * matter, they are open tiles.
+	 *
+	 * @param matrix
+	 * @return byte[]
+	 */
+	public static byte[] layout(MazeItem[][] matrix) {
+		int height = matrix.length;
+		int width = height > 0 ? matrix[0].length : 0;
+		byte[] layout = new byte[8 + width * height];
+		writeInt(layout, 0, width);
+		writeInt(layout, 4, height);
+		int i = 8;
+		for (MazeItem[] row : matrix) {
+			for (MazeItem item : row) {
+				layout[i++] = structure(item);
+			}
+		}
+		return layout;
+	}
+
+	private static byte structure(MazeItem item) {
+		switch (item) {
+		case WALL:
+			return 1;
+		case DOOR:
+			return 2;
+		case TELEPORT:
+			return 3;
+		default:
+			return 0;
+		}
+	}
+
+	private static void writeInt(byte[] bytes, int pos, int value) {
+		bytes[pos] = (byte) (value >>> 24);
+		bytes[pos + 1] = (byte) (value >>> 16);
+		bytes[pos + 2] = (byte) (value >>> 8);
+		bytes[pos + 3] = (byte) value;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of a layout.
+	 *
+	 * @param layout
+	 * @return long
+	 */
+	public static long fingerprint(byte[] layout) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : layout) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+}
@@ -1,214 +1,1126 @@
-import com.orbischallenge.pacman.api.common.MoveDir;
-import com.orbischallenge.pacman.api.java.JUtil;
-import com.orbischallenge.pacman.api.java.Maze;
-
-import java.awt.*;
-import java.util.*;
-import java.util.List;
-
-/**
- * A graph representation of the maze. Important: the methods are not optimized
- * for best performance. If your AI is likely to do heavy calculation, consider
- * improving some of the methods below. You are welcome to supply your own
- * methods or classes.
- */
-public class MazeGraph {
-
-	private static Maze maze;
-
-	private static Map<Point, Map<Point, List<Point>>> graph;
-
-	public MazeGraph(Maze maze) {
-		this.maze = maze;
-		makeGraph();
-	}
-
-	public Map<Point, Map<Point, List<Point>>> getGraph() {
-		return graph;
-	}
-
-	/**
-	 * Construct a graph representation of the maze.
-	 * 
-	 * @return
-	 */
-	private void makeGraph() {
-		this.graph = new HashMap<Point, Map<Point, List<Point>>>();
-		for (int j = 0; j < maze.getHeight(); j++) {
-			for (int i = 0; i < maze.getWidth(); i++) {
-				Point node = new Point(i, j);
-				// It's a node if the tile is an intersection or a dead end
-				if (maze.isIntersection(node) || maze.isDeadEnd(node)) {
-					Map<Point, List<Point>> connected = new HashMap<Point, List<Point>>();
-					for (MoveDir dir : MoveDir.values()) {
-						List<Point> path = getPathToNextNode(node, dir);
-						if (path.size() > 0) {
-							// Get the end node, which is the nearest node of
-							// this one
-							Point endNode = path.get(path.size() - 1);
-							// Put in the end node and the path leading to it
-							connected.put(endNode, path);
-						}
-					}
-					// Put in this node and its connected node->path maps
-					graph.put(node, connected);
-				}
-			}
-		}
-	}
-
-	/**
-	 * Get path to the next intersection/dead end, which is a node
-	 * 
-	 * @param tile
-	 * @param dir
-	 * @return List<Point> representing the path as a list of connected tiles
-	 *         from the current tile (exclusive) to the nearest node tile
-	 *         (inclusive) in the given direction
-	 */
-	public static List<Point> getPathToNextNode(Point tile, MoveDir dir) {
-		ArrayList<Point> path = new ArrayList<Point>();
-		Point dirVector = JUtil.getVector(dir);
-		Point currTile;
-		Point nextTile = JUtil.vectorAdd(tile, dirVector);
-		while (maze.isAccessible(nextTile)) {
-			currTile = nextTile; // move to the next tile
-			path.add(currTile); // add the curr tile to path
-			if (maze.isIntersection(currTile)) {
-				return path;
-			}
-			if (maze.isCorner(currTile)) {
-				// Turn corner, get the updated direction
-				dirVector = turnCorner(currTile, dirVector);
-			}
-			// Move to the next tile to the new location
-			nextTile = JUtil.vectorAdd(currTile, dirVector);
-		}
-		return path;
-	}
-
-	/**
-	 * Turn direction at a corner tile
-	 * 
-	 * @param cornerTile
-	 *            - This given tile must be a corner tile
-	 * @param currDirVector
-	 * @return Point
-	 */
-	private static Point turnCorner(Point cornerTile, Point currDirVector) {
-		for (Point perVector : JUtil.getPerpendiculars(currDirVector)) {
-			Point newTile = JUtil.vectorAdd(cornerTile,
-					perVector);
-			if (maze.isAccessible(newTile)) {
-				return perVector;
-			}
-		}
-		return currDirVector;
-	}
-
-	/**
-	 * Find all paths from a given starting tile to a goal tile, with maximum
-	 * number of nodes in each path. A path is a list of connected tiles.
-	 * 
-	 * @param start
-	 *            - the starting tile, doesn't have to be a node
-	 * @param goal
-	 *            - to tile to look for
-	 * @param nodeLimit
-	 *            - maximum number of nodes we want to have in our path
-	 * @return List<List<Point>> - List of paths
-	 */
-	public static List<List<Point>> getPaths(Point start, Point goal, int nodeLimit) {
-		List<List<Point>> paths = new ArrayList<List<Point>>();
-		for (MoveDir dir : MoveDir.values()) {
-			List<Point> path = getPathToNextNode(start, dir);
-			if (path.size() > 0) {
-				// Check if our goal is already in the nearby path
-				if (path.contains(goal)) {
-					paths.add(path.subList(0, path.indexOf(goal) + 1));
-				} else {
-					Point node = path.get(path.size() - 1);
-					for (List<Point> newPath : graph.get(node).values()) {
-						// Don't go back to the start at the first node
-						if (!newPath.contains(start)) {
-							List<Point> explored = Arrays.asList(new Point[] {
-									start, node });
-							findPathFromNode(paths, path, newPath, explored,
-									goal, nodeLimit);
-						}
-					}
-				}
-			}
-		}
-		return paths;
-	}
-
-    /**
-	 * Recursive helper method for graph search starting from a node
-	 * 
-	 * @param paths
-	 *            - accumulating all paths to the goal tile
-	 * @param currPath
-	 *            - our current path so far
-	 * @param newPath
-	 *            - the path to be searched
-	 * @param explored
-	 *            - nodes we have visited so far
-	 * @param goal
-	 *            - to tile to look for
-	 * @param nodeLimit
-	 *            - maximum number of nodes we want to have in our path
-	 */
-	public static void findPathFromNode(List<List<Point>> paths,
-                                        List<Point> currPath, List<Point> newPath, List<Point> explored,
-                                        Point goal, int nodeLimit) {
-		// If we have found the goal in the new path, add the sublist in which
-		// the goal is the
-		// end tile of our current path, and save it.
-		if (newPath.contains(goal)) {
-			List<Point> pathToGoal = new ArrayList<Point>(currPath);
-			pathToGoal.addAll(newPath.subList(0, newPath.indexOf(goal) + 1));
-			paths.add(pathToGoal);
-			return;
-		}
-		Point node = newPath.get(newPath.size() - 1);
-		// Check if the current node has been visited, if so, don't go back
-		// Check if the number of node visited exceeds the node limit
-		if (explored.contains(node) || explored.size() > nodeLimit) {
-			return;
-		}
-		// Add the node to our list of explored nodes
-		List<Point> newExplored = new ArrayList<Point>(explored);
-		newExplored.add(node);
-		// Add the searched path to our current path
-		List<Point> newCurrPath = new ArrayList<Point>(currPath);
-		newCurrPath.addAll(newPath);
-		// Check all paths connected to the current node
-		for (List<Point> newNewPath : graph.get(node).values()) {
-			findPathFromNode(paths, newCurrPath, newNewPath, newExplored, goal,
-					nodeLimit);
-		}
-	}
-
-	/**
-	 * Get a list of MoveDir objects which Pacman can use to navigate itself
-	 * through a path.
-	 * 
-	 * @param start
-	 *            - the starting tile
-	 * @param path
-	 *            - the path leading out of the starting tile, a list of
-	 *            connected tiles
-	 * @return List<MoveDir>
-	 */
-	public static List<MoveDir> pathToMoveDir(Point start, List<Point> path) {
-		List<MoveDir> MoveDirList = new ArrayList<MoveDir>();
-		Point currTile = start;
-		for (Point nextTile : path) {
-			Point dirVector = JUtil.vectorSub(nextTile, currTile);
-			MoveDirList.add(JUtil.getMoveDir(dirVector));
-			currTile = nextTile;
-		}
-		return MoveDirList;
-	}
-}
+import com.orbischallenge.pacman.api.common.MazeItem;
+import com.orbischallenge.pacman.api.common.MoveDir;
+import com.orbischallenge.pacman.api.java.JUtil;
+import com.orbischallenge.pacman.api.java.Maze;
+
+import java.awt.*;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.List;
+
+/**
+ * A graph representation of the maze. Every tile is identified by a single
+ * int, its tile ID (y * width + x), and paths are primitive int arrays of tile
+ * IDs. Use toTile and toPoint to convert at the Player API boundary.
+ */
+public class MazeGraph {
+
+	private static final int[] EMPTY_PATH = new int[0];
+
+	// Tile types, see getTileType
+	public static final int WALL = 0;
+	public static final int DOOR = 1;
+	public static final int STRAIGHT = 2;
+	public static final int CORNER = 3;
+	public static final int INTERSECTION = 4;
+	public static final int DEAD_END = 5;
+	public static final int TELEPORT = 6;
+
+	private static final MoveDir[] DIRS = MoveDir.values();
+	private static final int[] DX = new int[DIRS.length];
+	private static final int[] DY = new int[DIRS.length];
+
+	// Derived from the direction vectors rather than the MoveDir order: the
+	// opposite of each direction, the mask bits of the directions at right
+	// angles to it, and the mask bits of the vertical directions
+	private static final int[] OPPOSITE = new int[DIRS.length];
+	private static final int[] PERPENDICULAR = new int[DIRS.length];
+	private static final int VERTICAL;
+
+	static {
+		for (MoveDir dir : DIRS) {
+			DX[dir.ordinal()] = JUtil.getVectorX(dir);
+			DY[dir.ordinal()] = JUtil.getVectorY(dir);
+		}
+		int vertical = 0;
+		for (int dir = 0; dir < DIRS.length; dir++) {
+			for (int other = 0; other < DIRS.length; other++) {
+				int dot = DX[dir] * DX[other] + DY[dir] * DY[other];
+				if (dot < 0) {
+					OPPOSITE[dir] = other;
+				} else if (dot == 0) {
+					PERPENDICULAR[dir] |= 1 << other;
+				}
+			}
+			if (DX[dir] == 0) {
+				vertical |= 1 << dir;
+			}
+		}
+		VERTICAL = vertical;
+	}
+
+	/**
+	 * @param dir
+	 *            - the MoveDir ordinal
+	 * @return int MoveDir ordinal of the opposite direction
+	 */
+	public static int opposite(int dir) {
+		return OPPOSITE[dir];
+	}
+
+	private final int width;
+	private final int height;
+
+	private final boolean[] accessible;
+
+	// Teleport tunnels: stepping off the maze from teleportTile[i] in
+	// direction teleportDir[i] lands on teleportTarget[i]
+	private int[] teleportTile = EMPTY_PATH;
+	private int[] teleportDir = EMPTY_PATH;
+	private int[] teleportTarget = EMPTY_PATH;
+
+	// Bits (1 << MoveDir ordinal) of the directions we can move in from an
+	// accessible tile, and the neighbour in each direction, indexed by
+	// tile * 4 + dir, or -1 where it isn't accessible
+	private byte[] dirMask;
+	private int[] neighbours;
+
+	private byte[] tileType;
+
+	// Accessible tiles numbered 0 to cellCount - 1, for compact tables
+	private final int[] cellOfTile;
+	private final int[] cellTile;
+
+	private NodeGraph nodeGraph;
+
+	private SegmentIndex segmentIndex;
+
+	// The path to the next node for every (tile, MoveDir ordinal), indexed by
+	// tile * 4 + dir, and its Point view filled in on first use
+	private int[][] pathCache;
+	private List<Point>[] pointPathCache;
+
+	private DistanceTable distanceTable;
+	// Built instead of distanceTable when the maze is too big for one, and
+	// landmarkSearch when it is too big for an oracle as well
+	private DistanceOracle distanceOracle;
+	private LandmarkSearch landmarkSearch;
+
+	private FirstMoveTable firstMoveTable;
+
+	private HeadingDistances headingDistances;
+
+	private TrapAnalysis trapAnalysis;
+
+	private KShortestPaths kShortestPaths;
+
+	private SpaceTimePlanner spaceTimePlanner;
+
+	// Reusable state of searchPaths
+	private int[] pathStack;
+	private long[] visitedNodes;
+	private boolean searchStopped;
+
+	private Map<Point, Map<Point, List<Point>>> graph;
+
+	/**
+	 * Build the graph and every table derived from it. The graph only depends
+	 * on the wall layout, so it doesn't keep the maze, and it can be reused
+	 * through MazeCache for any maze with the same layout.
+	 *
+	 * @param maze
+	 */
+	public MazeGraph(Maze maze) {
+		this(maze, maze.toMatrix());
+		makeGraph();
+		segmentIndex = new SegmentIndex(this);
+		trapAnalysis = new TrapAnalysis(this);
+		makePathCache();
+		if (DistanceTable.fits(this)) {
+			distanceTable = new DistanceTable(this);
+		} else if (DistanceOracle.fits(this)) {
+			distanceOracle = new DistanceOracle(this);
+		} else {
+			landmarkSearch = new LandmarkSearch(this);
+		}
+		headingDistances = new HeadingDistances(this);
+	}
+
+	private MazeGraph(Maze maze, MazeItem[][] matrix) {
+		this(matrix.length > 0 ? matrix[0].length : 0, matrix.length,
+				readAccessible(maze, matrix));
+		findTeleports(matrix);
+		makeNeighbours();
+		makeTileTypes(matrix);
+	}
+
+	/**
+	 * Pair up teleport tiles on opposite edges of the maze. A teleport tile
+	 * on an edge leads to the accessible tile at the other end of its row or
+	 * column, and step() follows that link.
+	 */
+	private void findTeleports(MazeItem[][] matrix) {
+		int[] tiles = new int[8];
+		int[] dirs = new int[8];
+		int[] targets = new int[8];
+		int count = 0;
+		for (int tile = 0; tile < accessible.length; tile++) {
+			if (!accessible[tile]
+					|| matrix[tileY(tile)][tileX(tile)] != MazeItem.TELEPORT) {
+				continue;
+			}
+			for (int dir = 0; dir < DIRS.length; dir++) {
+				int x = tileX(tile) + DX[dir];
+				int y = tileY(tile) + DY[dir];
+				if (toTile(x, y) >= 0) {
+					continue;
+				}
+				int target = toTile((x + width) % width, (y + height) % height);
+				if (!accessible[target] || target == tile) {
+					continue;
+				}
+				if (count == tiles.length) {
+					tiles = Arrays.copyOf(tiles, count * 2);
+					dirs = Arrays.copyOf(dirs, count * 2);
+					targets = Arrays.copyOf(targets, count * 2);
+				}
+				tiles[count] = tile;
+				dirs[count] = dir;
+				targets[count] = target;
+				count++;
+			}
+		}
+		teleportTile = Arrays.copyOf(tiles, count);
+		teleportDir = Arrays.copyOf(dirs, count);
+		teleportTarget = Arrays.copyOf(targets, count);
+	}
+
+	private MazeGraph(int width, int height, boolean[] accessible) {
+		this.width = width;
+		this.height = height;
+		this.accessible = accessible;
+		this.cellOfTile = new int[width * height];
+		int cellCount = 0;
+		for (int tile = 0; tile < accessible.length; tile++) {
+			cellOfTile[tile] = accessible[tile] ? cellCount++ : -1;
+		}
+		this.cellTile = new int[cellCount];
+		for (int tile = 0; tile < cellOfTile.length; tile++) {
+			if (cellOfTile[tile] >= 0) {
+				cellTile[cellOfTile[tile]] = tile;
+			}
+		}
+	}
+
+	private static boolean[] readAccessible(Maze maze, MazeItem[][] matrix) {
+		int height = matrix.length;
+		int width = height > 0 ? matrix[0].length : 0;
+		boolean[] accessible = new boolean[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				accessible[y * width + x] = maze.isAccessible(x, y);
+			}
+		}
+		return accessible;
+	}
+
+	/**
+	 * Rebuild a graph from tables saved by MazeStore. Only the path cache and
+	 * the trap analysis are built again, from the segment index.
+	 */
+	static MazeGraph restore(int width, int height, boolean[] accessible,
+			int[] teleports, byte[] tileType, NodeGraph nodeGraph, SegmentIndex segmentIndex,
+			DistanceTable distanceTable) {
+		MazeGraph graph = new MazeGraph(width, height, accessible);
+		int count = teleports.length / 3;
+		graph.teleportTile = Arrays.copyOfRange(teleports, 0, count);
+		graph.teleportDir = Arrays.copyOfRange(teleports, count, count * 2);
+		graph.teleportTarget = Arrays.copyOfRange(teleports, count * 2,
+				count * 3);
+		graph.makeNeighbours();
+		graph.tileType = tileType;
+		graph.nodeGraph = nodeGraph;
+		graph.segmentIndex = segmentIndex;
+		graph.distanceTable = distanceTable;
+		graph.trapAnalysis = new TrapAnalysis(graph);
+		graph.makePathCache();
+		return graph;
+	}
+
+	/**
+	 * Save the graph and its tables, see MazeStore for the file layout.
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(width);
+		out.writeInt(height);
+		MazeStore.writeBooleans(out, accessible);
+		int count = teleportTile.length;
+		int[] teleports = Arrays.copyOf(teleportTile, count * 3);
+		System.arraycopy(teleportDir, 0, teleports, count, count);
+		System.arraycopy(teleportTarget, 0, teleports, count * 2, count);
+		MazeStore.writeInts(out, teleports);
+		MazeStore.writeBytes(out, tileType);
+		nodeGraph.write(out);
+		segmentIndex.write(out);
+		out.writeBoolean(distanceTable != null);
+		if (distanceTable != null) {
+			distanceTable.write(out);
+		}
+		out.writeBoolean(distanceOracle != null);
+		if (distanceOracle != null) {
+			distanceOracle.write(out);
+		}
+		out.writeBoolean(landmarkSearch != null);
+		if (landmarkSearch != null) {
+			landmarkSearch.write(out);
+		}
+		headingDistances.write(out);
+	}
+
+	static MazeGraph read(ByteBuffer in) {
+		int width = in.getInt();
+		int height = in.getInt();
+		boolean[] accessible = MazeStore.readBooleans(in);
+		MazeStore.check(width >= 0 && height >= 0
+				&& (long) width * height == accessible.length);
+		int[] teleports = MazeStore.readInts(in);
+		MazeStore.check(teleports.length % 3 == 0);
+		for (int value : teleports) {
+			MazeStore.check(value >= 0 && value < accessible.length);
+		}
+		byte[] tileType = MazeStore.readBytes(in);
+		MazeStore.check(tileType.length == accessible.length);
+		NodeGraph nodeGraph = NodeGraph.read(in, width * height);
+		SegmentIndex segmentIndex = SegmentIndex.read(in, nodeGraph,
+				width * height);
+		MazeGraph graph = restore(width, height, accessible, teleports,
+				tileType, nodeGraph, segmentIndex, null);
+		if (in.get() != 0) {
+			graph.distanceTable = DistanceTable.read(in, graph);
+		}
+		if (in.get() != 0) {
+			graph.distanceOracle = DistanceOracle.read(in, graph);
+		}
+		if (in.get() != 0) {
+			graph.landmarkSearch = LandmarkSearch.read(in, graph);
+		}
+		MazeStore.check(graph.distanceTable != null
+				|| graph.distanceOracle != null || graph.landmarkSearch != null);
+		graph.headingDistances = HeadingDistances.read(in, graph);
+		return graph;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getTileCount() {
+		return width * height;
+	}
+
+	/**
+	 * Convert a tile Point (column index, row index) to its tile ID.
+	 *
+	 * @param tile
+	 * @return int tile ID, or -1 if the tile is outside the maze
+	 */
+	public int toTile(Point tile) {
+		return toTile(tile.x, tile.y);
+	}
+
+	public int toTile(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return -1;
+		}
+		return y * width + x;
+	}
+
+	public Point toPoint(int tile) {
+		return new Point(tileX(tile), tileY(tile));
+	}
+
+	public int tileX(int tile) {
+		return tile % width;
+	}
+
+	public int tileY(int tile) {
+		return tile / width;
+	}
+
+	public List<Point> toPoints(int[] path) {
+		List<Point> points = new ArrayList<Point>(path.length);
+		for (int tile : path) {
+			points.add(toPoint(tile));
+		}
+		return points;
+	}
+
+	/**
+	 * Get the neighbouring tile ID in the given direction. Stepping off the
+	 * maze through a teleport tunnel lands on the tile at its other end.
+	 *
+	 * @param tile
+	 * @param dir
+	 *            - the MoveDir ordinal
+	 * @return int tile ID, or -1 if the neighbour is outside the maze
+	 */
+	public int step(int tile, int dir) {
+		int next = toTile(tileX(tile) + DX[dir], tileY(tile) + DY[dir]);
+		if (next < 0) {
+			for (int i = 0; i < teleportTile.length; i++) {
+				if (teleportTile[i] == tile && teleportDir[i] == dir) {
+					return teleportTarget[i];
+				}
+			}
+		}
+		return next;
+	}
+
+	private void makeNeighbours() {
+		dirMask = new byte[accessible.length];
+		neighbours = new int[accessible.length * DIRS.length];
+		for (int tile = 0; tile < accessible.length; tile++) {
+			for (int dir = 0; dir < DIRS.length; dir++) {
+				int next = step(tile, dir);
+				if (isAccessible(next)) {
+					neighbours[tile * DIRS.length + dir] = next;
+					if (accessible[tile]) {
+						dirMask[tile] |= 1 << dir;
+					}
+				} else {
+					neighbours[tile * DIRS.length + dir] = -1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the accessible neighbour in the given direction, a table lookup.
+	 *
+	 * @param tile
+	 * @param dir
+	 *            - the MoveDir ordinal
+	 * @return int tile ID, or -1 if the neighbour isn't accessible
+	 */
+	public int getNeighbour(int tile, int dir) {
+		return tile < 0 ? -1 : neighbours[tile * DIRS.length + dir];
+	}
+
+	/**
+	 * @param tile
+	 * @return int bits (1 << MoveDir ordinal) of the directions we can move
+	 *         in from an accessible tile
+	 */
+	public int getDirMask(int tile) {
+		return tile < 0 ? 0 : dirMask[tile];
+	}
+
+	public boolean canMove(int tile, int dir) {
+		return (getDirMask(tile) & (1 << dir)) != 0;
+	}
+
+	/**
+	 * @param tile
+	 * @return boolean true if stepping off the maze from this tile leads
+	 *         through a teleport tunnel
+	 */
+	public boolean isTeleport(int tile) {
+		for (int t : teleportTile) {
+			if (t == tile) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int getCellCount() {
+		return cellTile.length;
+	}
+
+	/**
+	 * @param tile
+	 * @return int cell number of an accessible tile, or -1
+	 */
+	public int getCell(int tile) {
+		return tile < 0 ? -1 : cellOfTile[tile];
+	}
+
+	public int getCellTile(int cell) {
+		return cellTile[cell];
+	}
+
+	public boolean isAccessible(int tile) {
+		return tile >= 0 && accessible[tile];
+	}
+
+	private int countExits(int tile) {
+		return Integer.bitCount(getDirMask(tile));
+	}
+
+	private void makeTileTypes(MazeItem[][] matrix) {
+		tileType = new byte[accessible.length];
+		for (int tile = 0; tile < accessible.length; tile++) {
+			int type;
+			int exits = countExits(tile);
+			int mask = dirMask[tile];
+			if (!accessible[tile]) {
+				type = matrix[tileY(tile)][tileX(tile)] == MazeItem.DOOR ? DOOR
+						: WALL;
+			} else if (exits >= 3) {
+				type = INTERSECTION;
+			} else if (exits == 1) {
+				type = DEAD_END;
+			} else if (isTeleport(tile)) {
+				type = TELEPORT;
+			} else if ((mask & VERTICAL) != 0 && (mask & ~VERTICAL) != 0) {
+				// Two exits that are not opposite each other
+				type = CORNER;
+			} else {
+				type = STRAIGHT;
+			}
+			tileType[tile] = (byte) type;
+		}
+	}
+
+	/**
+	 * Get the type of a tile, built once per maze so it's a single array
+	 * read. A teleport tile leading through a tunnel is TELEPORT rather than
+	 * STRAIGHT, unless it is an intersection or a dead end.
+	 *
+	 * @param tile
+	 * @return int one of WALL, DOOR, STRAIGHT, CORNER, INTERSECTION,
+	 *         DEAD_END or TELEPORT
+	 */
+	public int getTileType(int tile) {
+		return tile < 0 ? WALL : tileType[tile];
+	}
+
+	public boolean isIntersection(int tile) {
+		return getTileType(tile) == INTERSECTION;
+	}
+
+	public boolean isDeadEnd(int tile) {
+		return getTileType(tile) == DEAD_END;
+	}
+
+	public boolean isCorner(int tile) {
+		return getTileType(tile) == CORNER;
+	}
+
+	/**
+	 * A node is an intersection or a dead end.
+	 *
+	 * @param tile
+	 * @return boolean
+	 */
+	public boolean isNode(int tile) {
+		return nodeGraph.getNode(tile) >= 0;
+	}
+
+	public NodeGraph getNodeGraph() {
+		return nodeGraph;
+	}
+
+	public TrapAnalysis getTrapAnalysis() {
+		return trapAnalysis;
+	}
+
+	public SegmentIndex getSegmentIndex() {
+		return segmentIndex;
+	}
+
+	/**
+	 * Get a Point based view of the graph. It is built on first use and kept,
+	 * so only use it outside per-frame code.
+	 *
+	 * @return Map from each node to its connected nodes and the paths leading
+	 *         to them
+	 */
+	public Map<Point, Map<Point, List<Point>>> getGraph() {
+		if (graph == null) {
+			graph = new HashMap<Point, Map<Point, List<Point>>>();
+			for (int node = 0; node < nodeGraph.getNodeCount(); node++) {
+				Map<Point, List<Point>> connected = new HashMap<Point, List<Point>>();
+				for (int edge = nodeGraph.getEdgeStart(node); edge < nodeGraph
+						.getEdgeEnd(node); edge++) {
+					connected.put(toPoint(nodeGraph.getNodeTile(nodeGraph
+							.getTarget(edge))), toPoints(nodeGraph.getPath(edge)));
+				}
+				graph.put(toPoint(nodeGraph.getNodeTile(node)), connected);
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Construct a graph representation of the maze.
+	 *
+	 * @return
+	 */
+	private void makeGraph() {
+		int tileCount = accessible.length;
+		int[] nodeOfTile = new int[tileCount];
+		int nodeCount = 0;
+		for (int tile = 0; tile < tileCount; tile++) {
+			// It's a node if the tile is an intersection or a dead end
+			nodeOfTile[tile] = isIntersection(tile) || isDeadEnd(tile) ? nodeCount++
+					: -1;
+		}
+		int[] nodeTile = new int[nodeCount];
+		int[] edgeOffset = new int[nodeCount + 1];
+		int[][] paths = new int[nodeCount * DIRS.length][];
+		byte[] dirs = new byte[paths.length];
+		int edgeCount = 0;
+		int tileTotal = 0;
+		for (int tile = 0; tile < tileCount; tile++) {
+			int node = nodeOfTile[tile];
+			if (node < 0) {
+				continue;
+			}
+			nodeTile[node] = tile;
+			edgeOffset[node] = edgeCount;
+			for (int dir = 0; dir < DIRS.length; dir++) {
+				int[] path = walkToNextNode(tile, dir);
+				if (path.length > 0) {
+					// Keep the path leading to the nearest node in this
+					// direction
+					dirs[edgeCount] = (byte) dir;
+					paths[edgeCount++] = path;
+					tileTotal += path.length;
+				}
+			}
+		}
+		edgeOffset[nodeCount] = edgeCount;
+		int[] edgeTarget = new int[edgeCount];
+		int[] edgeTileOffset = new int[edgeCount + 1];
+		int[] edgeTiles = new int[tileTotal];
+		for (int edge = 0; edge < edgeCount; edge++) {
+			int[] path = paths[edge];
+			edgeTarget[edge] = nodeOfTile[path[path.length - 1]];
+			System.arraycopy(path, 0, edgeTiles, edgeTileOffset[edge],
+					path.length);
+			edgeTileOffset[edge + 1] = edgeTileOffset[edge] + path.length;
+		}
+		nodeGraph = new NodeGraph(nodeOfTile, nodeTile, edgeOffset,
+				edgeTarget, Arrays.copyOf(dirs, edgeCount), edgeTileOffset,
+				edgeTiles);
+	}
+
+	/**
+	 * Get path to the next intersection/dead end, which is a node
+	 *
+	 * @param tile
+	 * @param dir
+	 *            - the MoveDir ordinal
+	 * @return int[] representing the path as connected tile IDs from the
+	 *         current tile (exclusive) to the nearest node tile (inclusive) in
+	 *         the given direction. The array is shared, don't modify it.
+	 */
+	public int[] getPathToNextNode(int tile, int dir) {
+		if (isAccessible(tile)) {
+			return pathCache[tile * DIRS.length + dir];
+		}
+		return walkToNextNode(tile, dir);
+	}
+
+	/**
+	 * Store the path to the next node for every accessible tile and direction.
+	 * Paths are shared between callers, so they must never be modified.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void makePathCache() {
+		pathCache = new int[accessible.length * DIRS.length][];
+		pointPathCache = new List[pathCache.length];
+		for (int tile = 0; tile < accessible.length; tile++) {
+			if (!accessible[tile]) {
+				continue;
+			}
+			for (int dir = 0; dir < DIRS.length; dir++) {
+				int[] path;
+				int edge = segmentIndex.getSliceEdge(tile, dir);
+				if (edge >= 0) {
+					int start = segmentIndex.getSliceStart(tile, dir);
+					path = new int[nodeGraph.getLength(edge) - start];
+					for (int i = 0; i < path.length; i++) {
+						path[i] = nodeGraph.getTile(edge, start + i);
+					}
+				} else {
+					path = walkToNextNode(tile, dir);
+				}
+				pathCache[tile * DIRS.length + dir] = path.length > 0 ? path
+						: EMPTY_PATH;
+			}
+		}
+	}
+
+	/**
+	 * Walk the corridor tile by tile to the next node. Used to build the node
+	 * graph, and for tiles not covered by the SegmentIndex.
+	 */
+	private int[] walkToNextNode(int tile, int dir) {
+		if (tile < 0) {
+			return EMPTY_PATH;
+		}
+		int[] path = new int[8];
+		int size = 0;
+		int nextTile = getNeighbour(tile, dir);
+		// A corridor can't be longer than the maze, this guards closed loops
+		while (nextTile >= 0 && size < accessible.length) {
+			int currTile = nextTile; // move to the next tile
+			if (size == path.length) {
+				path = Arrays.copyOf(path, size * 2);
+			}
+			path[size++] = currTile; // add the curr tile to path
+			if (isIntersection(currTile)) {
+				break;
+			}
+			if (isCorner(currTile)) {
+				// Turn corner, get the updated direction
+				dir = turnCorner(currTile, dir);
+			}
+			// Move to the next tile to the new location
+			nextTile = getNeighbour(currTile, dir);
+		}
+		return Arrays.copyOf(path, size);
+	}
+
+	public int[] getPathToNextNode(int tile, MoveDir dir) {
+		return getPathToNextNode(tile, dir.ordinal());
+	}
+
+	/**
+	 * Point adapter for getPathToNextNode
+	 *
+	 * @param tile
+	 * @param dir
+	 * @return List<Point>, shared and unmodifiable for accessible tiles
+	 */
+	public List<Point> getPathToNextNode(Point tile, MoveDir dir) {
+		int t = toTile(tile);
+		if (!isAccessible(t)) {
+			return toPoints(walkToNextNode(t, dir.ordinal()));
+		}
+		int key = t * DIRS.length + dir.ordinal();
+		if (pointPathCache[key] == null) {
+			pointPathCache[key] = Collections.unmodifiableList(toPoints(pathCache[key]));
+		}
+		return pointPathCache[key];
+	}
+
+	/**
+	 * Turn direction at a corner tile
+	 *
+	 * @param cornerTile
+	 *            - This given tile must be a corner tile
+	 * @param currDir
+	 *            - the MoveDir ordinal
+	 * @return int MoveDir ordinal
+	 */
+	private int turnCorner(int cornerTile, int currDir) {
+		int turns = getDirMask(cornerTile) & PERPENDICULAR[currDir];
+		return turns != 0 ? Integer.numberOfTrailingZeros(turns) : currDir;
+	}
+
+	/**
+	 * Find the k shortest simple paths from a starting tile to a goal tile, in
+	 * ascending length. Unlike getPaths the cost of the search is bounded, it
+	 * returns the paths found so far once either budget runs out.
+	 *
+	 * @param start
+	 *            - the starting tile, doesn't have to be a node
+	 * @param goal
+	 *            - to tile to look for
+	 * @param k
+	 *            - maximum number of paths
+	 * @param nodeBudget
+	 *            - maximum number of nodes settled by the search
+	 * @param timeBudgetNanos
+	 *            - maximum time spent by the search
+	 * @return List<int[]> - List of paths, shortest first
+	 */
+	public List<int[]> getShortestPaths(int start, int goal, int k,
+			int nodeBudget, long timeBudgetNanos) {
+		if (kShortestPaths == null) {
+			kShortestPaths = new KShortestPaths(this);
+		}
+		return kShortestPaths.query(start, goal, k, nodeBudget,
+				timeBudgetNanos);
+	}
+
+	/**
+	 * Get a planner over (tile, tick) states, made on first use and kept
+	 * while the horizon stays the same. It is shared, so reservations made by
+	 * one caller stay until the next clearReservations.
+	 *
+	 * @param horizon
+	 *            - number of ticks looked ahead
+	 * @return SpaceTimePlanner
+	 */
+	public SpaceTimePlanner getSpaceTimePlanner(int horizon) {
+		if (spaceTimePlanner == null
+				|| spaceTimePlanner.getHorizon() != horizon) {
+			spaceTimePlanner = new SpaceTimePlanner(this, horizon);
+		}
+		return spaceTimePlanner;
+	}
+
+	/**
+	 * Find all paths from a given starting tile to a goal tile, with maximum
+	 * number of nodes in each path. A path is an array of connected tile IDs.
+	 * The number of paths grows exponentially with nodeLimit, use
+	 * getShortestPaths when only the best few are needed.
+	 *
+	 * @param start
+	 *            - the starting tile, doesn't have to be a node
+	 * @param goal
+	 *            - to tile to look for
+	 * @param nodeLimit
+	 *            - maximum number of nodes we want to have in our path
+	 * @return List<int[]> - List of paths
+	 */
+	public List<int[]> getPaths(int start, int goal, int nodeLimit) {
+		final List<int[]> paths = new ArrayList<int[]>();
+		searchPaths(start, goal, nodeLimit, new PathVisitor() {
+			public boolean visit(int[] path, int length) {
+				paths.add(Arrays.copyOf(path, length));
+				return true;
+			}
+		});
+		return paths;
+	}
+
+	/**
+	 * Receives each path found by searchPaths.
+	 */
+	public interface PathVisitor {
+		/**
+		 * @param path
+		 *            - buffer holding the path in its first length entries.
+		 *            It is reused by the search, copy it to keep it.
+		 * @param length
+		 * @return boolean - false to stop the search
+		 */
+		boolean visit(int[] path, int length);
+	}
+
+	/**
+	 * Find the same paths as getPaths, in the same order, but hand each one to
+	 * a visitor instead of collecting them. The search backtracks over one
+	 * reusable tile stack and a bitset of visited nodes, so it allocates
+	 * nothing. It is not reentrant: the visitor must not start another search.
+	 *
+	 * @param start
+	 *            - the starting tile, doesn't have to be a node
+	 * @param goal
+	 *            - to tile to look for
+	 * @param nodeLimit
+	 *            - maximum number of nodes we want to have in our path
+	 * @param visitor
+	 */
+	public void searchPaths(int start, int goal, int nodeLimit,
+			PathVisitor visitor) {
+		if (pathStack == null) {
+			// A simple path uses every edge at most once
+			pathStack = new int[accessible.length + nodeGraph.getEdgeTileCount()];
+			visitedNodes = new long[(nodeGraph.getNodeCount() + 63) >>> 6];
+		}
+		searchStopped = false;
+		int startNode = nodeGraph.getNode(start);
+		for (int dir = 0; dir < DIRS.length && !searchStopped; dir++) {
+			int[] path = getPathToNextNode(start, dir);
+			if (path.length > 0) {
+				// Check if our goal is already in the nearby path
+				int goalIndex = indexOf(path, goal);
+				System.arraycopy(path, 0, pathStack, 0, path.length);
+				if (goalIndex >= 0) {
+					searchStopped = !visitor.visit(pathStack, goalIndex + 1);
+					continue;
+				}
+				int node = nodeGraph.getNode(path[path.length - 1]);
+				if (node < 0) {
+					continue;
+				}
+				Arrays.fill(visitedNodes, 0L);
+				if (startNode >= 0) {
+					setVisited(startNode, true);
+				}
+				setVisited(node, true);
+				for (int edge = nodeGraph.getEdgeStart(node); edge < nodeGraph
+						.getEdgeEnd(node) && !searchStopped; edge++) {
+					// Don't go back to the start at the first node
+					if (nodeGraph.indexOf(edge, start) < 0) {
+						findPathFromNode(path.length, edge, 2, goal, nodeLimit,
+								visitor);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Point adapter for getPaths
+	 */
+	public List<List<Point>> getPaths(Point start, Point goal, int nodeLimit) {
+		List<List<Point>> paths = new ArrayList<List<Point>>();
+		for (int[] path : getPaths(toTile(start), toTile(goal), nodeLimit)) {
+			paths.add(toPoints(path));
+		}
+		return paths;
+	}
+
+	/**
+	 * Recursive helper method for graph search starting from a node. The
+	 * current path is the first size entries of pathStack.
+	 *
+	 * @param size
+	 *            - length of our current path so far
+	 * @param edge
+	 *            - the node graph edge to be searched
+	 * @param explored
+	 *            - number of tiles we have explored so far, the start and
+	 *            every node on the path
+	 * @param goal
+	 *            - to tile to look for
+	 * @param nodeLimit
+	 *            - maximum number of nodes we want to have in our path
+	 * @param visitor
+	 */
+	private void findPathFromNode(int size, int edge, int explored, int goal,
+			int nodeLimit, PathVisitor visitor) {
+		// If we have found the goal in the new path, add the part of it up
+		// to the goal to our current path, and hand it over.
+		int goalIndex = nodeGraph.indexOf(edge, goal);
+		if (goalIndex >= 0) {
+			nodeGraph.copyTiles(edge, goalIndex + 1, pathStack, size);
+			searchStopped = !visitor.visit(pathStack, size + goalIndex + 1);
+			return;
+		}
+		int node = nodeGraph.getTarget(edge);
+		// Check if the current node has been visited, if so, don't go back
+		// Check if the number of node visited exceeds the node limit
+		if (isVisited(node) || explored > nodeLimit) {
+			return;
+		}
+		// Add the node to our explored nodes, and the searched path to our
+		// current path
+		setVisited(node, true);
+		int length = nodeGraph.getLength(edge);
+		nodeGraph.copyTiles(edge, length, pathStack, size);
+		// Check all paths connected to the current node
+		for (int next = nodeGraph.getEdgeStart(node); next < nodeGraph
+				.getEdgeEnd(node) && !searchStopped; next++) {
+			findPathFromNode(size + length, next, explored + 1, goal,
+					nodeLimit, visitor);
+		}
+		setVisited(node, false);
+	}
+
+	private boolean isVisited(int node) {
+		return (visitedNodes[node >>> 6] & (1L << node)) != 0;
+	}
+
+	private void setVisited(int node, boolean visited) {
+		if (visited) {
+			visitedNodes[node >>> 6] |= 1L << node;
+		} else {
+			visitedNodes[node >>> 6] &= ~(1L << node);
+		}
+	}
+
+	private static int indexOf(int[] tiles, int tile) {
+		for (int i = 0; i < tiles.length; i++) {
+			if (tiles[i] == tile) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the walking distance between two tiles. This is a table lookup
+	 * unless the maze is too big for a DistanceTable, in which case the
+	 * DistanceOracle answers, or a LandmarkSearch for mazes too big for an
+	 * oracle. A plain search is run only for tiles those don't cover.
+	 *
+	 * @param from
+	 * @param to
+	 * @return int distance in tiles, or DistanceTable.UNREACHABLE
+	 */
+	public int distance(int from, int to) {
+		if (distanceTable != null) {
+			return distanceTable.distance(from, to);
+		}
+		int d = distanceOracle != null ? distanceOracle.distance(from, to)
+				: landmarkSearch.distance(from, to);
+		return d >= 0 ? d : searchDistance(from, to);
+	}
+
+	public DistanceTable getDistanceTable() {
+		return distanceTable;
+	}
+
+	/**
+	 * @return DistanceOracle, or null if the maze has a DistanceTable or is
+	 *         too big for an oracle
+	 */
+	public DistanceOracle getDistanceOracle() {
+		return distanceOracle;
+	}
+
+	/**
+	 * @return LandmarkSearch, or null if the maze is small enough for a
+	 *         DistanceTable or a DistanceOracle
+	 */
+	public LandmarkSearch getLandmarkSearch() {
+		return landmarkSearch;
+	}
+
+	private int searchDistance(int from, int to) {
+		if (getCell(from) < 0 || getCell(to) < 0) {
+			return DistanceTable.UNREACHABLE;
+		}
+		int[] dist = new int[cellTile.length];
+		Arrays.fill(dist, -1);
+		int[] queue = new int[cellTile.length];
+		int head = 0, tail = 0;
+		queue[tail++] = from;
+		dist[getCell(from)] = 0;
+		while (head < tail) {
+			int tile = queue[head++];
+			if (tile == to) {
+				return dist[getCell(tile)];
+			}
+			for (int dir = 0; dir < DIRS.length; dir++) {
+				int next = getNeighbour(tile, dir);
+				if (next >= 0 && dist[getCell(next)] < 0) {
+					dist[getCell(next)] = dist[getCell(tile)] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return DistanceTable.UNREACHABLE;
+	}
+
+	/**
+	 * Get the first move on a shortest path from one tile towards another.
+	 * This is a FirstMoveTable lookup, the table being built on the first
+	 * call, unless the maze is too big for one, in which case it is the
+	 * neighbour with the smallest distance to the goal.
+	 *
+	 * @param from
+	 * @param to
+	 * @return int MoveDir ordinal, or -1 if to can't be reached or is from
+	 */
+	public int firstMove(int from, int to) {
+		if (getFirstMoveTable() != null) {
+			return firstMoveTable.firstMove(from, to);
+		}
+		int best = -1;
+		int bestDist = distance(from, to);
+		for (int dir = 0; dir < DIRS.length; dir++) {
+			int next = getNeighbour(from, dir);
+			if (next >= 0) {
+				int d = distance(next, to);
+				if (d < bestDist) {
+					bestDist = d;
+					best = dir;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return FirstMoveTable made on first use, or null if the maze is too big
+	 *         for one
+	 */
+	public FirstMoveTable getFirstMoveTable() {
+		if (firstMoveTable == null && FirstMoveTable.fits(this)) {
+			firstMoveTable = new FirstMoveTable(this);
+		}
+		return firstMoveTable;
+	}
+
+	/**
+	 * Get the walking distance of a mover which can't turn back, like a ghost.
+	 * Movers outside the maze, such as ghosts in the house, and movers with
+	 * no heading fall back to the plain distance.
+	 *
+	 * @param tile
+	 *            - tile ID of the mover
+	 * @param heading
+	 *            - MoveDir ordinal the mover is heading in
+	 * @param target
+	 * @param limit
+	 *            - the largest distance the caller cares about, mazes too
+	 *            big for a HeadingDistances table search no further
+	 * @return int distance in tiles, or DistanceTable.UNREACHABLE
+	 */
+	public int headingDistance(int tile, int heading, int target, int limit) {
+		if (getCell(tile) < 0 || heading < 0) {
+			return distance(tile, target);
+		}
+		return headingDistances.distance(tile, heading, target, limit);
+	}
+
+	public HeadingDistances getHeadingDistances() {
+		return headingDistances;
+	}
+
+	/**
+	 * Get the MoveDir ordinal leading from one tile to an adjacent tile.
+	 *
+	 * @param from
+	 * @param to
+	 * @return int MoveDir ordinal, or -1 if the tiles are not adjacent
+	 */
+	public int dirBetween(int from, int to) {
+		for (int dir = 0; dir < DIRS.length; dir++) {
+			if (step(from, dir) == to) {
+				return dir;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the MoveDir objects which Pacman can use to navigate itself through
+	 * a path.
+	 *
+	 * @param start
+	 *            - the starting tile
+	 * @param path
+	 *            - the path leading out of the starting tile, an array of
+	 *            connected tile IDs
+	 * @return MoveDir[]
+	 */
+	public MoveDir[] pathToMoveDir(int start, int[] path) {
+		MoveDir[] moveDirs = new MoveDir[path.length];
+		int currTile = start;
+		for (int i = 0; i < path.length; i++) {
+			moveDirs[i] = DIRS[dirBetween(currTile, path[i])];
+			currTile = path[i];
+		}
+		return moveDirs;
+	}
+
+	/**
+	 * Point adapter for pathToMoveDir
+	 */
+	public List<MoveDir> pathToMoveDir(Point start, List<Point> path) {
+		List<MoveDir> MoveDirList = new ArrayList<MoveDir>();
+		int currTile = toTile(start);
+		for (Point nextPoint : path) {
+			int nextTile = toTile(nextPoint);
+			MoveDirList.add(DIRS[dirBetween(currTile, nextTile)]);
+			currTile = nextTile;
+		}
+		return MoveDirList;
+	}
+}
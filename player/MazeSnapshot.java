@@ -0,0 +1,190 @@
+import com.orbischallenge.pacman.api.common.MazeItem;
+import com.orbischallenge.pacman.api.java.Maze;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A copy of the maze items in a flat byte array indexed by tile ID, taken once
+ * per level. Every frame update() only looks at the tiles that can have
+ * changed: the tile Pacman is on, and the tiles of the power dots left.
+ * If the maze's dot count still doesn't match, the whole maze is copied again.
+ * <p>
+ * Dots and power dots are also kept as bitsets over tile IDs, which answer
+ * isDot() and isPowerDot() and let update() visit just the power dots left.
+ * <p>
+ * getVersion() goes up whenever a tile changes, so anything computed from the
+ * snapshot can be cached until then.
+ */
+public class MazeSnapshot {
+
+	private static final MazeItem[] ITEMS = MazeItem.values();
+	private static final byte DOT = (byte) MazeItem.DOT.ordinal();
+	private static final byte POWER_DOT = (byte) MazeItem.POWER_DOT.ordinal();
+
+	private final int width;
+	private final byte[] items;
+	private final long[] dotBits;
+	private final long[] powerDotBits;
+
+	private int dotCount;
+	private int powerDotCount;
+	// Whether Maze.getDotsCount() counts power dots as well
+	private boolean countsPowerDots;
+
+	private int version;
+
+	private final List<ItemListener> listeners = new ArrayList<ItemListener>();
+
+	/**
+	 * Told about every tile whose item changes after the snapshot was taken.
+	 */
+	public interface ItemListener {
+		void itemChanged(int tile, MazeItem old, MazeItem item);
+	}
+
+	public MazeSnapshot(Maze maze) {
+		MazeItem[][] matrix = maze.toMatrix();
+		this.width = matrix.length > 0 ? matrix[0].length : 0;
+		this.items = new byte[width * matrix.length];
+		this.dotBits = new long[(items.length + 63) >>> 6];
+		this.powerDotBits = new long[dotBits.length];
+		copy(matrix);
+		countsPowerDots = maze.getDotsCount() == dotCount + powerDotCount
+				&& powerDotCount > 0;
+	}
+
+	public void addListener(ItemListener listener) {
+		listeners.add(listener);
+	}
+
+	private void copy(MazeItem[][] matrix) {
+		dotCount = 0;
+		powerDotCount = 0;
+		int tile = 0;
+		for (MazeItem[] row : matrix) {
+			for (MazeItem item : row) {
+				items[tile] = (byte) item.ordinal();
+				if (item == MazeItem.DOT) {
+					dotBits[tile >>> 6] |= 1L << tile;
+					dotCount++;
+				} else if (item == MazeItem.POWER_DOT) {
+					powerDotBits[tile >>> 6] |= 1L << tile;
+					powerDotCount++;
+				}
+				tile++;
+			}
+		}
+	}
+
+	/**
+	 * Bring the snapshot up to date after a frame.
+	 *
+	 * @param maze
+	 * @param pacTile
+	 *            - tile ID of Pacman
+	 */
+	public void update(Maze maze, int pacTile) {
+		if (pacTile >= 0 && pacTile < items.length) {
+			set(pacTile, maze.getTileItem(pacTile % width, pacTile / width));
+		}
+		if (powerDotCount > 0) {
+			checkPowerDots(maze);
+		}
+		int expected = dotCount + (countsPowerDots ? powerDotCount : 0);
+		if (maze.getDotsCount() != expected) {
+			resync(maze);
+		}
+	}
+
+	/**
+	 * Ask the maze about each power dot still in the snapshot. There are only
+	 * a handful, so this is cheaper than getting the maze's list of them.
+	 */
+	private void checkPowerDots(Maze maze) {
+		for (int word = 0; word < powerDotBits.length; word++) {
+			long bits = powerDotBits[word];
+			while (bits != 0) {
+				int tile = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				MazeItem item = maze.getTileItem(tile % width, tile / width);
+				if (item != MazeItem.POWER_DOT) {
+					set(tile, item);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy the whole maze again, telling the listeners about every tile that
+	 * changed.
+	 */
+	public void resync(Maze maze) {
+		MazeItem[][] matrix = maze.toMatrix();
+		int tile = 0;
+		for (MazeItem[] row : matrix) {
+			for (MazeItem item : row) {
+				set(tile++, item);
+			}
+		}
+	}
+
+	private void set(int tile, MazeItem item) {
+		byte b = (byte) item.ordinal();
+		byte old = items[tile];
+		if (old == b) {
+			return;
+		}
+		items[tile] = b;
+		long bit = 1L << tile;
+		if (old == DOT) {
+			dotBits[tile >>> 6] &= ~bit;
+			dotCount--;
+		} else if (old == POWER_DOT) {
+			powerDotBits[tile >>> 6] &= ~bit;
+			powerDotCount--;
+		}
+		if (b == DOT) {
+			dotBits[tile >>> 6] |= bit;
+			dotCount++;
+		} else if (b == POWER_DOT) {
+			powerDotBits[tile >>> 6] |= bit;
+			powerDotCount++;
+		}
+		version++;
+		for (ItemListener listener : listeners) {
+			listener.itemChanged(tile, ITEMS[old], item);
+		}
+	}
+
+	public int getTileCount() {
+		return items.length;
+	}
+
+	public MazeItem getItem(int tile) {
+		return ITEMS[items[tile]];
+	}
+
+	public boolean isDot(int tile) {
+		return (dotBits[tile >>> 6] & (1L << tile)) != 0;
+	}
+
+	public boolean isPowerDot(int tile) {
+		return (powerDotBits[tile >>> 6] & (1L << tile)) != 0;
+	}
+
+	public int getDotCount() {
+		return dotCount;
+	}
+
+	public int getPowerDotCount() {
+		return powerDotCount;
+	}
+
+	/**
+	 * @return int a counter which goes up whenever a tile changes
+	 */
+	public int getVersion() {
+		return version;
+	}
+}
@@ -0,0 +1,182 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Saves a MazeGraph and its tables to disk, one file per maze fingerprint, and
+ * loads them back through a memory mapped FileChannel. Many JVMs playing the
+ * same mazes then only build each graph once.
+ * <p>
+ * The file starts with a magic number, the format VERSION, the fingerprint
+ * and the maze layout, followed by the graph (see MazeGraph.write). Bump
+ * VERSION whenever the saved tables change. A file with another version or
+ * layout is ignored and replaced, and so is a file whose section lengths
+ * don't add up, which is checked before anything is allocated.
+ * <p>
+ * The directory is taken from the pacman.cache.dir system property, and
+ * defaults to pacman-maze-cache under java.io.tmpdir. The cache is only an
+ * optimization: any I/O problem is ignored and the graph is built instead.
+ */
+public class MazeStore {
+
+	private static final int MAGIC = 0x504d4743; // "PMGC"
+	public static final int VERSION = 8;
+
+	private MazeStore() {
+	}
+
+	private static File getFile(long fingerprint) {
+		String dir = System.getProperty("pacman.cache.dir");
+		if (dir == null) {
+			dir = new File(System.getProperty("java.io.tmpdir"),
+					"pacman-maze-cache").getPath();
+		}
+		return new File(dir, "maze-" + Long.toHexString(fingerprint) + ".bin");
+	}
+
+	/**
+	 * Load the graph saved for a layout.
+	 *
+	 * @param fingerprint
+	 * @param layout
+	 *            - see MazeCache.layout
+	 * @return MazeGraph, or null if there is no usable file
+	 */
+	public static MazeGraph load(long fingerprint, byte[] layout) {
+		File file = getFile(fingerprint);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				// The mapping stays valid after the channel is closed
+				MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY,
+						0, channel.size());
+				if (in.getInt() != MAGIC || in.getInt() != VERSION
+						|| in.getLong() != fingerprint
+						|| !Arrays.equals(readBytes(in), layout)) {
+					return null;
+				}
+				return MazeGraph.read(in);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// A truncated or corrupt file
+			return null;
+		}
+	}
+
+	/**
+	 * Save a graph. It is written to a temporary file first and then renamed,
+	 * so other processes never map a half written file.
+	 */
+	public static void save(long fingerprint, byte[] layout, MazeGraph graph) {
+		File file = getFile(fingerprint);
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			return;
+		}
+		File temp = null;
+		try {
+			temp = File.createTempFile("maze-", ".tmp", dir);
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(fingerprint);
+				writeBytes(out, layout);
+				graph.write(out);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)) {
+				// Windows won't rename over an existing file
+				file.delete();
+				temp.renameTo(file);
+			}
+		} catch (IOException e) {
+			// Leave it to the next process
+		} finally {
+			if (temp != null) {
+				temp.delete();
+			}
+		}
+	}
+
+	static void writeInts(DataOutputStream out, int[] values)
+			throws IOException {
+		out.writeInt(values.length);
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	/**
+	 * Read a section length, making sure the rest of the file can hold that
+	 * many elements of the given size, so that a truncated or corrupt file
+	 * can't make us allocate a huge array.
+	 */
+	static int readLength(ByteBuffer in, int elementSize) {
+		int length = in.getInt();
+		check(length >= 0 && length <= in.remaining() / elementSize);
+		return length;
+	}
+
+	/**
+	 * Reject the file unless the condition holds. load() treats the
+	 * exception as a cache miss.
+	 */
+	static void check(boolean condition) {
+		if (!condition) {
+			throw new IllegalStateException("Corrupt maze cache file");
+		}
+	}
+
+	static int[] readInts(ByteBuffer in) {
+		int[] values = new int[readLength(in, 4)];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + values.length * 4);
+		return values;
+	}
+
+	static void writeBytes(DataOutputStream out, byte[] values)
+			throws IOException {
+		out.writeInt(values.length);
+		out.write(values);
+	}
+
+	static byte[] readBytes(ByteBuffer in) {
+		byte[] values = new byte[readLength(in, 1)];
+		in.get(values);
+		return values;
+	}
+
+	static void writeBooleans(DataOutputStream out, boolean[] values)
+			throws IOException {
+		out.writeInt(values.length);
+		for (boolean value : values) {
+			out.writeBoolean(value);
+		}
+	}
+
+	static boolean[] readBooleans(ByteBuffer in) {
+		boolean[] values = new boolean[readLength(in, 1)];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.get() != 0;
+		}
+		return values;
+	}
+}
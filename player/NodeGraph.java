@@ -0,0 +1,233 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An immutable compressed sparse row representation of the maze's node graph.
+ * Nodes are intersections and dead ends, numbered 0 to getNodeCount() - 1.
+ * The edges leaving node n are getEdgeStart(n) (inclusive) to
+ * getEdgeEnd(n) (exclusive). The tiles of every edge are kept in one flat
+ * array, from the source node (exclusive) to the target node (inclusive).
+ * <p>
+ * Every edge also has a bitset mask over tile IDs, kept as the few (word,
+ * bits) pairs it touches, so contains() tests a tile against one word
+ * instead of walking the tiles of the edge.
+ */
+public class NodeGraph {
+
+	private final int[] nodeOfTile;
+	private final int[] nodeTile;
+	private final int[] edgeOffset;
+	private final int[] edgeTarget;
+	private final int[] edgeLength;
+	private final byte[] edgeDir;
+	private final int[] edgeTileOffset;
+	private final int[] edgeTiles;
+
+	private final int[] maskOffset;
+	private int[] maskWord;
+	private long[] maskBits;
+
+	NodeGraph(int[] nodeOfTile, int[] nodeTile, int[] edgeOffset,
+			int[] edgeTarget, byte[] edgeDir, int[] edgeTileOffset,
+			int[] edgeTiles) {
+		this.nodeOfTile = nodeOfTile;
+		this.nodeTile = nodeTile;
+		this.edgeOffset = edgeOffset;
+		this.edgeTarget = edgeTarget;
+		this.edgeDir = edgeDir;
+		this.edgeTileOffset = edgeTileOffset;
+		this.edgeTiles = edgeTiles;
+		this.edgeLength = new int[edgeTarget.length];
+		for (int edge = 0; edge < edgeLength.length; edge++) {
+			edgeLength[edge] = edgeTileOffset[edge + 1] - edgeTileOffset[edge];
+		}
+		this.maskOffset = new int[edgeTarget.length + 1];
+		makeMasks();
+	}
+
+	private void makeMasks() {
+		maskWord = new int[edgeTiles.length];
+		maskBits = new long[edgeTiles.length];
+		int size = 0;
+		for (int edge = 0; edge < edgeLength.length; edge++) {
+			int start = size;
+			for (int i = edgeTileOffset[edge]; i < edgeTileOffset[edge + 1]; i++) {
+				int word = edgeTiles[i] >>> 6;
+				long bit = 1L << edgeTiles[i];
+				int m = size - 1;
+				while (m >= start && maskWord[m] != word) {
+					m--;
+				}
+				if (m < start) {
+					m = size++;
+					maskWord[m] = word;
+				}
+				maskBits[m] |= bit;
+			}
+			maskOffset[edge + 1] = size;
+		}
+		maskWord = Arrays.copyOf(maskWord, size);
+		maskBits = Arrays.copyOf(maskBits, size);
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		MazeStore.writeInts(out, nodeTile);
+		MazeStore.writeInts(out, edgeOffset);
+		MazeStore.writeInts(out, edgeTarget);
+		MazeStore.writeBytes(out, edgeDir);
+		MazeStore.writeInts(out, edgeTileOffset);
+		MazeStore.writeInts(out, edgeTiles);
+	}
+
+	static NodeGraph read(ByteBuffer in, int tileCount) {
+		int[] nodeTile = MazeStore.readInts(in);
+		int[] nodeOfTile = new int[tileCount];
+		Arrays.fill(nodeOfTile, -1);
+		for (int node = 0; node < nodeTile.length; node++) {
+			MazeStore.check(nodeTile[node] >= 0 && nodeTile[node] < tileCount);
+			nodeOfTile[nodeTile[node]] = node;
+		}
+		int[] edgeOffset = MazeStore.readInts(in);
+		int[] edgeTarget = MazeStore.readInts(in);
+		byte[] edgeDir = MazeStore.readBytes(in);
+		int[] edgeTileOffset = MazeStore.readInts(in);
+		int[] edgeTiles = MazeStore.readInts(in);
+		int edgeCount = edgeTarget.length;
+		MazeStore.check(edgeOffset.length == nodeTile.length + 1
+				&& edgeDir.length == edgeCount
+				&& edgeTileOffset.length == edgeCount + 1
+				&& edgeOffset[0] == 0 && edgeOffset[nodeTile.length] == edgeCount
+				&& edgeTileOffset[0] == 0
+				&& edgeTileOffset[edgeCount] == edgeTiles.length);
+		for (int node = 0; node < nodeTile.length; node++) {
+			MazeStore.check(edgeOffset[node] <= edgeOffset[node + 1]);
+		}
+		for (int edge = 0; edge < edgeCount; edge++) {
+			MazeStore.check(edgeTarget[edge] >= 0
+					&& edgeTarget[edge] < nodeTile.length
+					&& edgeTileOffset[edge] <= edgeTileOffset[edge + 1]);
+		}
+		for (int tile : edgeTiles) {
+			MazeStore.check(tile >= 0 && tile < tileCount);
+		}
+		return new NodeGraph(nodeOfTile, nodeTile, edgeOffset, edgeTarget,
+				edgeDir, edgeTileOffset, edgeTiles);
+	}
+
+	public int getNodeCount() {
+		return nodeTile.length;
+	}
+
+	public int getEdgeCount() {
+		return edgeTarget.length;
+	}
+
+	/**
+	 * @return int total number of tiles over all edges
+	 */
+	public int getEdgeTileCount() {
+		return edgeTiles.length;
+	}
+
+	/**
+	 * @param tile
+	 * @return int node ID of the tile, or -1 if the tile is not a node
+	 */
+	public int getNode(int tile) {
+		return tile < 0 ? -1 : nodeOfTile[tile];
+	}
+
+	public int getNodeTile(int node) {
+		return nodeTile[node];
+	}
+
+	public int getEdgeStart(int node) {
+		return edgeOffset[node];
+	}
+
+	public int getEdgeEnd(int node) {
+		return edgeOffset[node + 1];
+	}
+
+	/**
+	 * @param edge
+	 * @return int node ID at the far end of the edge
+	 */
+	public int getTarget(int edge) {
+		return edgeTarget[edge];
+	}
+
+	/**
+	 * @param edge
+	 * @return int number of tiles on the edge, which is also its walking
+	 *         distance
+	 */
+	public int getLength(int edge) {
+		return edgeLength[edge];
+	}
+
+	/**
+	 * @param edge
+	 * @return int MoveDir ordinal leading out of the source node
+	 */
+	public int getDir(int edge) {
+		return edgeDir[edge];
+	}
+
+	/**
+	 * @param edge
+	 * @param i
+	 *            - index along the edge, 0 is next to the source node
+	 * @return int tile ID
+	 */
+	public int getTile(int edge, int i) {
+		return edgeTiles[edgeTileOffset[edge] + i];
+	}
+
+	/**
+	 * @param edge
+	 * @param tile
+	 * @return int index of the tile along the edge, or -1 if it's not on it
+	 */
+	public int indexOf(int edge, int tile) {
+		for (int i = edgeTileOffset[edge]; i < edgeTileOffset[edge + 1]; i++) {
+			if (edgeTiles[i] == tile) {
+				return i - edgeTileOffset[edge];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param edge
+	 * @param tile
+	 * @return boolean whether the tile is on the edge
+	 */
+	public boolean contains(int edge, int tile) {
+		int word = tile >>> 6;
+		for (int m = maskOffset[edge]; m < maskOffset[edge + 1]; m++) {
+			if (maskWord[m] == word) {
+				return (maskBits[m] & (1L << tile)) != 0;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copy the first length tiles of an edge into dest.
+	 */
+	public void copyTiles(int edge, int length, int[] dest, int destPos) {
+		System.arraycopy(edgeTiles, edgeTileOffset[edge], dest, destPos, length);
+	}
+
+	/**
+	 * @param edge
+	 * @return int[] a new copy of the edge's tiles
+	 */
+	public int[] getPath(int edge) {
+		return Arrays.copyOfRange(edgeTiles, edgeTileOffset[edge],
+				edgeTileOffset[edge + 1]);
+	}
+}
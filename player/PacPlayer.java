@@ -1,5 +1,4 @@
 import com.orbischallenge.pacman.api.common.GhostState;
-import com.orbischallenge.pacman.api.common.MazeItem;
 import com.orbischallenge.pacman.api.common.MoveDir;
 import com.orbischallenge.pacman.api.java.*;
 
@@ -17,8 +16,14 @@ public class PacPlayer implements Player {
     private int lives = 3;
     boolean isFirstStep = true;
     private static MazeGraph graph;
+    private static MazeSnapshot snapshot;
+    private static SegmentDots segmentDots;
+    private static DotFenwick dotFenwick;
+    private static DotGrid dotGrid;
+    private static DotDistanceField dotField;
     private static final Integer SAFE_DIST = 2;
     private static final int DOT_REMAINED = 20;
+    private static final int TRAP_PENALTY = 40;
 //    private Queue<Point> forwardTravelPath, backwardTravelPath;
 
     /**
@@ -38,36 +43,43 @@ public class PacPlayer implements Player {
                                       int score) {
 
         // Get the current tile of Pacman
-        Point pacTile = pac.getTile();
-        MazeItem curItem = maze.getTileItem(pacTile);
-
-        if (canProceed(maze, pacTile, isFirstStep)) {
-            Point nextTile = JUtil.vectorAdd(pac.getTile(), JUtil.getVector(pac.getDir()));
-            if (maze.isIntersection(nextTile)) {
-                return checkForGhostInNIntersection(maze, nextTile, ghosts) ? JUtil.getOppositeDir(pac.getDir()) : pac.getDir();
-            } else {
-                GhostState curGhostState = checkForGhostInNBlock(pac, ghosts, pac.getDir());
-                return isGhostExistOrHarmful(curGhostState) ? JUtil.getOppositeDir(pac.getDir()) : pac.getDir();
-            }
-        } else if (isCorner(maze, pacTile) && !isFirstStep)
-            return getCornerDir(maze, pac, ghosts);
-        else if (isDeadEnd(maze, pacTile))
-            return getDeadEndDir(pac.getDir());
-        else if (maze.isIntersection(pacTile) && !isFirstStep)
-            return getIntersectionDir(maze, pac, ghosts, pacTile);
-        else {
+        int pacTile = graph.toTile(pac.getTile());
+        snapshot.update(maze, pacTile);
+
+        int tileType = graph.getTileType(pacTile);
+
+        if (isFirstStep) {
+            if (tileType == MazeGraph.DEAD_END)
+                return getDeadEndDir(pac.getDir());
             isFirstStep = false;
             return MoveDir.RIGHT;
         }
+        switch (tileType) {
+            case MazeGraph.CORNER:
+                return getCornerDir(maze, pac, ghosts);
+            case MazeGraph.DEAD_END:
+                return getDeadEndDir(pac.getDir());
+            case MazeGraph.INTERSECTION:
+                return getIntersectionDir(maze, pac, ghosts, pacTile);
+            default:
+                int nextTile = graph.getNeighbour(pacTile, pac.getDir().ordinal());
+                if (graph.isIntersection(nextTile)) {
+                    return checkForGhostInNIntersection(maze, nextTile, ghosts) ? JUtil.getOppositeDir(pac.getDir()) : pac.getDir();
+                } else {
+                    GhostState curGhostState = checkForGhostInNBlock(pac, ghosts, pac.getDir());
+                    return isGhostExistOrHarmful(curGhostState) ? JUtil.getOppositeDir(pac.getDir()) : pac.getDir();
+                }
+        }
     }
 
-    private boolean checkForGhostInNIntersection(Maze maze, Point nextTile, Ghost[] ghosts) {
-        List<Point> neighbours = maze.getAccessibleNeighbours(nextTile);
-        List<Point> ghostPos = getGhostPos(ghosts);
-        if (ghostPos.contains(nextTile) && isGhostExistOrHarmful(ghosts[ghostPos.indexOf(nextTile)].getState()))
-            return true;
-        for (Point n : neighbours) {
-            if (ghostPos.contains(n) && isGhostExistOrHarmful(ghosts[ghostPos.indexOf(n)].getState()))
+    /**
+     * Check whether a harmful ghost can be on the intersection ahead as soon
+     * as Pacman, without turning back.
+     */
+    private boolean checkForGhostInNIntersection(Maze maze, int nextTile, Ghost[] ghosts) {
+        int[] ghostPos = getGhostPos(ghosts);
+        for (int g = 0; g < ghosts.length; g++) {
+            if (isGhostExistOrHarmful(ghosts[g].getState()) && ghostArrival(ghosts[g], ghostPos[g], nextTile, 1) <= 1)
                 return true;
         }
         return false;
@@ -77,86 +89,84 @@ public class PacPlayer implements Player {
         return ghostState != null && (ghostState != GhostState.FLEE && ghostState != GhostState.FRIGHTEN);
     }
 
+    /**
+     * Find a ghost which can reach one of the next SAFE_DIST tiles in the
+     * given direction no later than Pacman, without turning back.
+     *
+     * @return GhostState of that ghost, a harmful one if there is any, or
+     * null
+     */
     private GhostState checkForGhostInNBlock(Pac pac, Ghost[] ghosts, MoveDir dir) {
-        List<Point> ghostPos = getGhostPos(ghosts);
-        Point curTile = pac.getTile();
-        List<Point> curPath = MazeGraph.getPathToNextNode(curTile, dir);
-        for (int i = 0; i < Math.min(SAFE_DIST, curPath.size()); i++) {
-            if (ghostPos.contains(curPath.get(i)))
-                return ghosts[ghostPos.indexOf(curPath.get(i))].getState();
+        int[] ghostPos = getGhostPos(ghosts);
+        int curTile = graph.toTile(pac.getTile());
+        SegmentIndex segments = graph.getSegmentIndex();
+        NodeGraph nodeGraph = graph.getNodeGraph();
+        int edge = segments.getSliceEdge(curTile, dir.ordinal());
+        int[] curPath = edge < 0 ? graph.getPathToNextNode(curTile, dir) : null;
+        int start = edge < 0 ? 0 : segments.getSliceStart(curTile, dir.ordinal());
+        int length = edge < 0 ? curPath.length : nodeGraph.getLength(edge) - start;
+
+        GhostState found = null;
+        for (int i = 0; i < Math.min(SAFE_DIST, length); i++) {
+            int tile = edge < 0 ? curPath[i] : nodeGraph.getTile(edge, start + i);
+            for (int g = 0; g < ghosts.length; g++) {
+                if (ghostArrival(ghosts[g], ghostPos[g], tile, i + 1) <= i + 1) {
+                    GhostState state = ghosts[g].getState();
+                    if (isGhostExistOrHarmful(state))
+                        return state;
+                    if (found == null)
+                        found = state;
+                }
+            }
         }
-
-        return null;
+        return found;
     }
 
-    private boolean isCorner(Maze maze, Point pacTile) {
-        if (maze.isAccessible(pacTile)) {
-            List<Point> neighbours = maze.getAccessibleNeighbours(pacTile);
-            if ((neighbours.size() == 2) &&
-                    (neighbours.get(0).getX() != neighbours.get(1).getX()) &&
-                    (neighbours.get(0).getY() != neighbours.get(1).getY())) {
-                return true;
-            }
-        }
-        return false;
+    /**
+     * @return int steps the ghost needs to reach the tile, heading the way it
+     * does now, or UNREACHABLE if that is more than limit
+     */
+    private static int ghostArrival(Ghost ghost, int ghostTile, int tile, int limit) {
+        MoveDir heading = ghost.getDir();
+        return graph.headingDistance(ghostTile, heading == null ? -1 : heading.ordinal(), tile, limit);
     }
 
-    private MoveDir getIntersectionDir(Maze maze, Pac pac, Ghost[] ghosts, Point pacTile) {
-        Map<Point, List<Point>> listMap = graph.getGraph().get(pacTile);
-        List<Point> ghostPos = getGhostPos(ghosts);
+    private MoveDir getIntersectionDir(Maze maze, Pac pac, Ghost[] ghosts, int pacTile) {
+        NodeGraph nodeGraph = graph.getNodeGraph();
+        int pacNode = nodeGraph.getNode(pacTile);
+        int[] ghostPos = getGhostPos(ghosts);
 
         MoveDir dir = pac.getDir();
         MoveDir nextDir = pac.getDir();
         Integer maxScore = -205, nextMaxScore = -205;
 
-        List<Point> neighbours = maze.getAccessibleNeighbours(pacTile);
-        List<Point> nPath;
-        for (Point p : neighbours) {
+        for (int d = 0; d < MoveDir.values().length; d++) {
+            int p = graph.getNeighbour(pacTile, d);
+            if (p < 0)
+                continue;
             Integer score = 0;
-            MoveDir pDir = getDirFromPoint(p, pacTile);
-            nPath = MazeGraph.getPathToNextNode(p, pDir);
-            nPath.add(p);
-            score = getPathScore(maze, ghosts, score, nPath);
+            MoveDir pDir = MoveDir.values()[d];
+            score = getPathScore(maze, ghosts, ghostPos, score, p, d);
+            score = getScore(maze, ghosts, ghostPos, score, p);
+            score -= getTrapRisk(ghosts, ghostPos, pacTile, d);
 
             if (score > maxScore) {
                 maxScore = score;
-//                dir = getDirFromPoint(listMap.get(p).get(0), pacTile);
                 dir = pDir;
             }
         }
 
-            Collection<Point> nextChoice = graph.getGraph().get(pacTile).keySet();
-
-            for (Point point : nextChoice) {
-                Collection<List<Point>> endPointChoices = graph.getGraph().get(point).values();
+            for (int e = nodeGraph.getEdgeStart(pacNode); e < nodeGraph.getEdgeEnd(pacNode); e++) {
+                int point = nodeGraph.getTarget(e);
                 Integer score = 0;
 
-                for (List<Point> endPointList : endPointChoices) {
-                    for (Point endPointPoint : endPointList) {
-                        MazeItem item = maze.getTileItem(endPointPoint);
-                        switch (item) {
-                            case BLANK:
-                                break;
-                            case DOT:
-                                score += 1;
-                                break;
-                            case POWER_DOT:
-                                score += 2;
-//                                score += 40;
-                                break;
-                            case TELEPORT:
-                                break;
-                        }
-                        if (ghostPos.contains(endPointPoint)) {
-                            GhostState ghostStates = ghosts[ghostPos.indexOf(endPointPoint)].getState();
-                            score = getScoreGhost(score, ghostStates);
-                        }
-                    }
+                for (int edge = nodeGraph.getEdgeStart(point); edge < nodeGraph.getEdgeEnd(point); edge++) {
+                    score = getEdgeScore(ghosts, ghostPos, score, edge, 0);
                 }
 
                 if (score > nextMaxScore) {
                     nextMaxScore = score;
-                    nextDir = getDirFromPoint(listMap.get(point).get(0), pacTile);
+                    nextDir = MoveDir.values()[nodeGraph.getDir(e)];
                 }
             }
         if (nextMaxScore > maxScore)
@@ -208,32 +218,84 @@ public class PacPlayer implements Player {
             return dir;
     }
 
+    /**
+     * Penalty for heading into a pocket of the maze, which can only be left
+     * the way Pacman came in, while a harmful ghost can reach the way out
+     * before Pacman is back from the far end of the pocket.
+     */
+    private int getTrapRisk(Ghost[] ghosts, int[] ghostPos, int pacTile, int d) {
+        int edge = graph.getSegmentIndex().getSliceEdge(pacTile, d);
+        if (edge < 0 || graph.getNodeGraph().getNode(pacTile) < 0)
+            return 0;
+        int depth = graph.getTrapAnalysis().getPocketDepth(edge);
+        if (depth < 0)
+            return 0;
+        int roundTrip = depth * 2;
+        for (int g = 0; g < ghosts.length; g++) {
+            if (isGhostExistOrHarmful(ghosts[g].getState()) && ghostArrival(ghosts[g], ghostPos[g], pacTile, roundTrip) <= roundTrip)
+                return TRAP_PENALTY;
+        }
+        return 0;
+    }
 
-    public static Integer getPathScore(Maze maze, Ghost[] ghosts, Integer score, List<Point> path) {
-        List<Point> ghostPos = getGhostPos(ghosts);
-        for (Point p : path) {
+    public static Integer getPathScore(Maze maze, Ghost[] ghosts, Integer score, int[] path) {
+        int[] ghostPos = getGhostPos(ghosts);
+        for (int p : path) {
             score = getScore(maze, ghosts, ghostPos, score, p);
         }
         return score;
     }
 
-    public static Integer getScore(Maze maze, Ghost[] ghost, List<Point> ghostPos, Integer score, Point point) {
-        MazeItem item = maze.getTileItem(point);
-        switch (item) {
-            case BLANK:
-                break;
-            case DOT:
-                score += 1;
-                break;
-            case POWER_DOT:
-                score += 2;
-//                score += 40;
-                break;
-            case TELEPORT:
-                break;
+    /**
+     * Score the path from a tile to the next node in the given direction,
+     * reading it as a slice of a node graph edge where possible.
+     */
+    public static Integer getPathScore(Maze maze, Ghost[] ghosts, int[] ghostPos, Integer score, int tile, int dir) {
+        SegmentIndex segments = graph.getSegmentIndex();
+        int edge = segments.getSliceEdge(tile, dir);
+        if (edge < 0) {
+            for (int p : graph.getPathToNextNode(tile, dir)) {
+                score = getScore(maze, ghosts, ghostPos, score, p);
+            }
+            return score;
+        }
+        return getEdgeScore(ghosts, ghostPos, score, edge, segments.getSliceStart(tile, dir));
+    }
+
+    /**
+     * Score the tiles of a node graph edge from index start onwards. Dots are
+     * read from the segment counters, and only the tiles before start are
+     * looked at one by one.
+     */
+    public static Integer getEdgeScore(Ghost[] ghosts, int[] ghostPos, Integer score, int edge, int start) {
+        NodeGraph nodeGraph = graph.getNodeGraph();
+        score += segmentDots.getEdgeDots(edge) + 2 * segmentDots.getEdgePowerDots(edge);
+        for (int i = 0; i < start; i++) {
+            int tile = nodeGraph.getTile(edge, i);
+            if (snapshot.isDot(tile))
+                score -= 1;
+            else if (snapshot.isPowerDot(tile))
+                score -= 2;
         }
-        if (ghostPos.contains(point)) {
-            GhostState ghostStates = ghost[ghostPos.indexOf(point)].getState();
+        for (int g = 0; g < ghostPos.length; g++) {
+            int tile = ghostPos[g];
+            // Only the first ghost on a tile counts, as in getScore
+            if (tile < 0 || indexOfGhost(ghostPos, tile) != g || !nodeGraph.contains(edge, tile))
+                continue;
+            if (nodeGraph.indexOf(edge, tile) >= start)
+                score = getScoreGhost(score, ghosts[g].getState());
+        }
+        return score;
+    }
+
+    public static Integer getScore(Maze maze, Ghost[] ghost, int[] ghostPos, Integer score, int point) {
+        if (snapshot.isDot(point))
+            score += 1;
+        else if (snapshot.isPowerDot(point))
+            score += 2;
+        int ghostIndex = indexOfGhost(ghostPos, point);
+        if (ghostIndex >= 0) {
+            GhostState ghostStates = ghost[ghostIndex].getState();
             score = getScoreGhost(score, ghostStates);
         }
         return score;
@@ -258,18 +320,20 @@ public class PacPlayer implements Player {
         return score;
     }
 
-    private static List<Point> getGhostPos(Ghost[] ghosts) {
-        List<Point> points = new ArrayList<Point>();
-        for (Ghost g : ghosts) {
-            Point tile = g.getTile();
-            points.add(tile);
+    private static int[] getGhostPos(Ghost[] ghosts) {
+        int[] tiles = new int[ghosts.length];
+        for (int i = 0; i < ghosts.length; i++) {
+            tiles[i] = graph.toTile(ghosts[i].getTile());
         }
-        return points;
+        return tiles;
     }
 
-    private MoveDir getDirFromPoint(Point curPoint, Point nextPoint) {
-        Point movingPoint = JUtil.vectorSub(curPoint, nextPoint);
-        return JUtil.getMoveDir(movingPoint);
+    private static int indexOfGhost(int[] ghostPos, int tile) {
+        for (int i = 0; i < ghostPos.length; i++) {
+            if (ghostPos[i] == tile)
+                return i;
+        }
+        return -1;
     }
 
     private MoveDir getDeadEndDir(MoveDir dir) {
@@ -278,9 +342,9 @@ public class PacPlayer implements Player {
 
     private MoveDir getCornerDir(Maze maze, Pac pac, Ghost[] ghosts) {
         MoveDir[] directions = JUtil.getPerpendicularDirs(pac.getDir());
+        int pacTile = graph.toTile(pac.getTile());
         for (MoveDir dir : directions) {
-            Point nextTile = JUtil.vectorAdd(pac.getTile(), JUtil.getVector(dir));
-            if (maze.isAccessible(nextTile)) {
+            if (graph.canMove(pacTile, dir.ordinal())) {
                 GhostState curGhostState = checkForGhostInNBlock(pac, ghosts, dir);
                 if (isGhostExistOrHarmful(curGhostState)) {
                     return JUtil.getOppositeDir(pac.getDir());
@@ -291,14 +355,6 @@ public class PacPlayer implements Player {
         return pac.getDir();
     }
 
-    private boolean canProceed(Maze maze, Point pacTile, Boolean isFirstStep) {
-        return !(maze.isIntersection(pacTile) || isDeadEnd(maze, pacTile) || isCorner(maze, pacTile) || isFirstStep);
-    }
-
-    private boolean isDeadEnd(Maze maze, Point pacTile) {
-        return maze.isDeadEnd(pacTile) && maze.getTileItem(pacTile) != MazeItem.TELEPORT;
-    }
-
     /**
      * This method will be called by the game whenever a new level starts. The
      * parameters represent the game objects at their initial states. This
@@ -312,7 +368,12 @@ public class PacPlayer implements Player {
     public void onLevelStart(Maze maze, Ghost[] ghosts, Pac pac, int score) {
         isFirstStep = true;
         System.out.println("Java player start new level!");
-        graph = new MazeGraph(maze);
+        graph = MazeCache.getGraph(maze);
+        snapshot = new MazeSnapshot(maze);
+        segmentDots = new SegmentDots(graph, snapshot);
+        dotFenwick = new DotFenwick(graph, snapshot);
+        dotField = new DotDistanceField(graph, snapshot);
+        dotGrid = null;
     }
 
     /**
@@ -333,47 +394,47 @@ public class PacPlayer implements Player {
 
     }
 
-    public static Point findNearestDot(Maze maze, Pac pac) {
-        int width = maze.getWidth()/16;
-        int height = maze.getHeight()/16;
-        double shortestDistToPac = Math.sqrt(width * width + height * height);
-        Point goal = pac.getTile();
-
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                Point p = new Point(i, j);
-                MazeItem item = maze.getTileItem(p);
-                if (item == MazeItem.DOT || item == MazeItem.POWER_DOT) {
-                    double distToPac = JUtil.eculidean_distance(pac.getTile(), p);
-                    if (distToPac < shortestDistToPac) {
-                        goal = p;
-                        shortestDistToPac = distToPac;
-                    }
-                }
-            }
-        }
-
-        return goal;
+    /**
+     * Find the k dots or power dots nearest to a tile on the grid, nearest
+     * first. The dot distance field already gives the nearest dot by walking
+     * distance, so the DotGrid is only built by the first call of a level.
+     *
+     * @return int number of tiles found, at most k
+     */
+    public static int findNearestDots(int tile, int k, int[] tiles) {
+        if (dotGrid == null)
+            dotGrid = new DotGrid(graph, snapshot);
+        return dotGrid.nearest(graph.tileX(tile), graph.tileY(tile), k, tiles);
     }
 
+    /**
+     * Step down the dot distance field towards the nearest dot, avoiding
+     * paths that score below zero. When two moves are as close to a dot, take
+     * the one heading into the side of the maze with more dots left.
+     */
     public MoveDir findBestDirToNearestDot(Maze maze, Pac pac, Ghost[] ghosts) {
-        Point nearestDotTile = findNearestDot(maze, pac);
-        Point pacTile = pac.getTile();
+        int pacTile = graph.toTile(pac.getTile());
 
-        double pMinDist = 500;
+        int pMinDist = DistanceTable.UNREACHABLE;
+        int pMinDots = -1;
         MoveDir pMinDir = pac.getDir();
-        List<Point> neighbours = maze.getAccessibleNeighbours(pacTile);
-        List<Point> nPath;
-        for (Point p : neighbours) {
-            MoveDir pDir = getDirFromPoint(p, pacTile);
-            nPath = MazeGraph.getPathToNextNode(p, pDir);
-            nPath.add(p);
+        int[] ghostPos = getGhostPos(ghosts);
+        for (int d = 0; d < MoveDir.values().length; d++) {
+            int p = graph.getNeighbour(pacTile, d);
+            if (p < 0)
+                continue;
+            MoveDir pDir = MoveDir.values()[d];
             int score = 0;
-            score = getPathScore(maze, ghosts, score, nPath);
+            score = getPathScore(maze, ghosts, ghostPos, score, p, d);
+            score = getScore(maze, ghosts, ghostPos, score, p);
             if (score >= 0) {
-                double pDist = JUtil.eculidean_distance(p, nearestDotTile);
-                if (pDist < pMinDist) {
+                int pDist = dotField.distance(p);
+                if (pDist == DistanceTable.UNREACHABLE || pDist > pMinDist)
+                    continue;
+                int pDots = getDotsAhead(pacTile, pDir);
+                if (pDist < pMinDist || pDots > pMinDots) {
                     pMinDist = pDist;
+                    pMinDots = pDots;
                     pMinDir = pDir;
                 }
             }
@@ -381,4 +442,27 @@ public class PacPlayer implements Player {
 
         return pMinDir;
     }
-}
\ No newline at end of file
+
+    /**
+     * Count the dots left beyond Pacman in a direction, e.g. in every row
+     * above him for UP.
+     */
+    private static int getDotsAhead(int pacTile, MoveDir dir) {
+        int x = graph.tileX(pacTile);
+        int y = graph.tileY(pacTile);
+        int right = graph.getWidth() - 1;
+        int bottom = graph.getHeight() - 1;
+        switch (dir) {
+            case UP:
+                return dotFenwick.count(0, 0, right, y - 1);
+            case DOWN:
+                return dotFenwick.count(0, y + 1, right, bottom);
+            case LEFT:
+                return dotFenwick.count(0, 0, x - 1, bottom);
+            case RIGHT:
+                return dotFenwick.count(x + 1, 0, right, bottom);
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import com.orbischallenge.pacman.api.common.MazeItem;
+
+/**
+ * Number of dots and power dots left on every corridor segment, kept up to
+ * date from MazeSnapshot changes. The dots on a node graph edge are the dots
+ * on its segment plus the one on its target node, so an edge reward is read
+ * without walking the edge.
+ */
+public class SegmentDots implements MazeSnapshot.ItemListener {
+
+	private final NodeGraph nodeGraph;
+	private final SegmentIndex segments;
+	private final MazeSnapshot snapshot;
+
+	private final int[] dots;
+	private final int[] powerDots;
+
+	public SegmentDots(MazeGraph graph, MazeSnapshot snapshot) {
+		this.nodeGraph = graph.getNodeGraph();
+		this.segments = graph.getSegmentIndex();
+		this.snapshot = snapshot;
+		this.dots = new int[segments.getSegmentCount()];
+		this.powerDots = new int[segments.getSegmentCount()];
+		for (int seg = 0; seg < dots.length; seg++) {
+			for (int offset = 0; offset < segments.getLength(seg); offset++) {
+				int tile = segments.getTile(seg, offset);
+				if (snapshot.isDot(tile)) {
+					dots[seg]++;
+				} else if (snapshot.isPowerDot(tile)) {
+					powerDots[seg]++;
+				}
+			}
+		}
+		snapshot.addListener(this);
+	}
+
+	@Override
+	public void itemChanged(int tile, MazeItem old, MazeItem item) {
+		int seg = segments.getSegment(tile);
+		if (seg < 0) {
+			return;
+		}
+		if (old == MazeItem.DOT) {
+			dots[seg]--;
+		} else if (old == MazeItem.POWER_DOT) {
+			powerDots[seg]--;
+		}
+		if (item == MazeItem.DOT) {
+			dots[seg]++;
+		} else if (item == MazeItem.POWER_DOT) {
+			powerDots[seg]++;
+		}
+	}
+
+	public int getDots(int seg) {
+		return dots[seg];
+	}
+
+	public int getPowerDots(int seg) {
+		return powerDots[seg];
+	}
+
+	/**
+	 * @param edge
+	 * @return int dots on the edge, its target node included
+	 */
+	public int getEdgeDots(int edge) {
+		int target = nodeGraph.getNodeTile(nodeGraph.getTarget(edge));
+		return dots[segments.getSegmentOfEdge(edge)]
+				+ (snapshot.isDot(target) ? 1 : 0);
+	}
+
+	/**
+	 * @param edge
+	 * @return int power dots on the edge, its target node included
+	 */
+	public int getEdgePowerDots(int edge) {
+		int target = nodeGraph.getNodeTile(nodeGraph.getTarget(edge));
+		return powerDots[segments.getSegmentOfEdge(edge)]
+				+ (snapshot.isPowerDot(target) ? 1 : 0);
+	}
+}
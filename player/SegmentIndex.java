@@ -0,0 +1,260 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Corridor segments of the maze. A segment is the corridor between two nodes,
+ * and it owns the non-node tiles on it, numbered by their offset from end A.
+ * A segment's tiles are the first getLength() tiles of its A to B edge in the
+ * NodeGraph, so the path from any tile to the next node in either direction
+ * is a slice of one edge.
+ */
+public class SegmentIndex {
+
+	private final NodeGraph nodeGraph;
+
+	private final int[] segmentOfTile;
+	private final int[] offsetOfTile;
+	// MoveDir ordinals from a tile towards end B and end A of its segment
+	private final byte[] forwardDir;
+	private final byte[] backwardDir;
+
+	private final int[] segEdgeAB;
+	private final int[] segEdgeBA;
+	private final int[] segmentOfEdge;
+
+	public SegmentIndex(MazeGraph graph) {
+		this.nodeGraph = graph.getNodeGraph();
+		int tileCount = graph.getTileCount();
+		this.segmentOfTile = new int[tileCount];
+		this.offsetOfTile = new int[tileCount];
+		this.forwardDir = new byte[tileCount];
+		this.backwardDir = new byte[tileCount];
+		Arrays.fill(segmentOfTile, -1);
+
+		int edgeCount = nodeGraph.getEdgeCount();
+		int[] edgeAB = new int[edgeCount];
+		int[] edgeBA = new int[edgeCount];
+		boolean[] done = new boolean[edgeCount];
+		int segCount = 0;
+		for (int node = 0; node < nodeGraph.getNodeCount(); node++) {
+			for (int edge = nodeGraph.getEdgeStart(node); edge < nodeGraph
+					.getEdgeEnd(node); edge++) {
+				if (done[edge]) {
+					continue;
+				}
+				int reverse = findReverse(graph, node, edge);
+				done[edge] = true;
+				if (reverse >= 0) {
+					done[reverse] = true;
+				}
+				int seg = segCount++;
+				edgeAB[seg] = edge;
+				edgeBA[seg] = reverse;
+				int length = nodeGraph.getLength(edge) - 1;
+				int prev = nodeGraph.getNodeTile(node);
+				for (int i = 0; i < length; i++) {
+					int tile = nodeGraph.getTile(edge, i);
+					segmentOfTile[tile] = seg;
+					offsetOfTile[tile] = i;
+					forwardDir[tile] = (byte) graph.dirBetween(tile,
+							nodeGraph.getTile(edge, i + 1));
+					backwardDir[tile] = (byte) graph.dirBetween(tile, prev);
+					prev = tile;
+				}
+			}
+		}
+		this.segEdgeAB = Arrays.copyOf(edgeAB, segCount);
+		this.segEdgeBA = Arrays.copyOf(edgeBA, segCount);
+		this.segmentOfEdge = makeSegmentOfEdge();
+	}
+
+	private SegmentIndex(NodeGraph nodeGraph, int[] segmentOfTile,
+			int[] offsetOfTile, byte[] forwardDir, byte[] backwardDir,
+			int[] segEdgeAB, int[] segEdgeBA) {
+		this.nodeGraph = nodeGraph;
+		this.segmentOfTile = segmentOfTile;
+		this.offsetOfTile = offsetOfTile;
+		this.forwardDir = forwardDir;
+		this.backwardDir = backwardDir;
+		this.segEdgeAB = segEdgeAB;
+		this.segEdgeBA = segEdgeBA;
+		this.segmentOfEdge = makeSegmentOfEdge();
+	}
+
+	private int[] makeSegmentOfEdge() {
+		int[] segOf = new int[nodeGraph.getEdgeCount()];
+		Arrays.fill(segOf, -1);
+		for (int seg = 0; seg < segEdgeAB.length; seg++) {
+			segOf[segEdgeAB[seg]] = seg;
+			if (segEdgeBA[seg] >= 0) {
+				segOf[segEdgeBA[seg]] = seg;
+			}
+		}
+		return segOf;
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		MazeStore.writeInts(out, segmentOfTile);
+		MazeStore.writeInts(out, offsetOfTile);
+		MazeStore.writeBytes(out, forwardDir);
+		MazeStore.writeBytes(out, backwardDir);
+		MazeStore.writeInts(out, segEdgeAB);
+		MazeStore.writeInts(out, segEdgeBA);
+	}
+
+	static SegmentIndex read(ByteBuffer in, NodeGraph nodeGraph, int tileCount) {
+		int[] segmentOfTile = MazeStore.readInts(in);
+		int[] offsetOfTile = MazeStore.readInts(in);
+		byte[] forwardDir = MazeStore.readBytes(in);
+		byte[] backwardDir = MazeStore.readBytes(in);
+		int[] segEdgeAB = MazeStore.readInts(in);
+		int[] segEdgeBA = MazeStore.readInts(in);
+		MazeStore.check(segmentOfTile.length == tileCount
+				&& offsetOfTile.length == tileCount
+				&& forwardDir.length == tileCount
+				&& backwardDir.length == tileCount
+				&& segEdgeBA.length == segEdgeAB.length);
+		int edgeCount = nodeGraph.getEdgeCount();
+		for (int seg = 0; seg < segEdgeAB.length; seg++) {
+			MazeStore.check(segEdgeAB[seg] >= 0 && segEdgeAB[seg] < edgeCount
+					&& segEdgeBA[seg] >= -1 && segEdgeBA[seg] < edgeCount);
+			MazeStore.check(segEdgeBA[seg] < 0
+					|| nodeGraph.getLength(segEdgeBA[seg]) == nodeGraph
+							.getLength(segEdgeAB[seg]));
+		}
+		for (int tile = 0; tile < tileCount; tile++) {
+			int seg = segmentOfTile[tile];
+			MazeStore.check(seg >= -1 && seg < segEdgeAB.length);
+			// getSliceStart must stay inside the segment's edges
+			MazeStore.check(seg < 0 || offsetOfTile[tile] >= 0
+					&& offsetOfTile[tile] < nodeGraph.getLength(segEdgeAB[seg]) - 1);
+		}
+		return new SegmentIndex(nodeGraph, segmentOfTile, offsetOfTile,
+				forwardDir, backwardDir, segEdgeAB, segEdgeBA);
+	}
+
+	/**
+	 * Find the edge walking the same corridor back from the target of edge.
+	 */
+	private int findReverse(MazeGraph graph, int node, int edge) {
+		int target = nodeGraph.getTarget(edge);
+		int length = nodeGraph.getLength(edge);
+		// The reverse edge starts next to the target and ends at this node
+		int first = length > 1 ? nodeGraph.getTile(edge, length - 2)
+				: nodeGraph.getNodeTile(node);
+		int targetTile = nodeGraph.getNodeTile(target);
+		for (int back = nodeGraph.getEdgeStart(target); back < nodeGraph
+				.getEdgeEnd(target); back++) {
+			if (back != edge && nodeGraph.getTarget(back) == node
+					&& nodeGraph.getLength(back) == length
+					&& graph.step(targetTile, nodeGraph.getDir(back)) == first) {
+				return back;
+			}
+		}
+		return -1;
+	}
+
+	public int getSegmentCount() {
+		return segEdgeAB.length;
+	}
+
+	/**
+	 * @param tile
+	 * @return int segment of a non-node tile, or -1
+	 */
+	public int getSegment(int tile) {
+		return tile < 0 ? -1 : segmentOfTile[tile];
+	}
+
+	/**
+	 * @param tile
+	 * @return int offset of a non-node tile from end A of its segment
+	 */
+	public int getOffset(int tile) {
+		return offsetOfTile[tile];
+	}
+
+	public int getNodeA(int seg) {
+		int reverse = segEdgeBA[seg];
+		return reverse >= 0 ? nodeGraph.getTarget(reverse) : -1;
+	}
+
+	public int getNodeB(int seg) {
+		return nodeGraph.getTarget(segEdgeAB[seg]);
+	}
+
+	public int getEdgeAB(int seg) {
+		return segEdgeAB[seg];
+	}
+
+	public int getEdgeBA(int seg) {
+		return segEdgeBA[seg];
+	}
+
+	/**
+	 * @param edge
+	 * @return int segment walked by the edge, every edge has one
+	 */
+	public int getSegmentOfEdge(int edge) {
+		return segmentOfEdge[edge];
+	}
+
+	/**
+	 * @param seg
+	 * @return int number of non-node tiles on the segment
+	 */
+	public int getLength(int seg) {
+		return nodeGraph.getLength(segEdgeAB[seg]) - 1;
+	}
+
+	public int getTile(int seg, int offset) {
+		return nodeGraph.getTile(segEdgeAB[seg], offset);
+	}
+
+	/**
+	 * Get the edge holding the path from a tile to the next node in the given
+	 * direction. The path is the edge's tiles from getSliceStart onwards.
+	 *
+	 * @param tile
+	 * @param dir
+	 *            - the MoveDir ordinal
+	 * @return int edge, or -1 if the path isn't covered by a segment
+	 */
+	public int getSliceEdge(int tile, int dir) {
+		int node = nodeGraph.getNode(tile);
+		if (node >= 0) {
+			for (int edge = nodeGraph.getEdgeStart(node); edge < nodeGraph
+					.getEdgeEnd(node); edge++) {
+				if (nodeGraph.getDir(edge) == dir) {
+					return edge;
+				}
+			}
+			return -1;
+		}
+		int seg = getSegment(tile);
+		if (seg < 0) {
+			return -1;
+		}
+		if (forwardDir[tile] == dir) {
+			return segEdgeAB[seg];
+		}
+		return backwardDir[tile] == dir ? segEdgeBA[seg] : -1;
+	}
+
+	/**
+	 * @param tile
+	 * @param dir
+	 *            - the MoveDir ordinal
+	 * @return int index of the first tile of the slice in getSliceEdge
+	 */
+	public int getSliceStart(int tile, int dir) {
+		if (nodeGraph.getNode(tile) >= 0) {
+			return 0;
+		}
+		int seg = segmentOfTile[tile];
+		int offset = offsetOfTile[tile];
+		return forwardDir[tile] == dir ? offset + 1 : getLength(seg) - offset;
+	}
+}
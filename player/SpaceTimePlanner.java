@@ -0,0 +1,269 @@
+import java.util.Arrays;
+
+/**
+ * A* over (tile, tick) states against the tiles ghosts are predicted to be on
+ * at every tick. Predicted ghost positions go into a reservation table, and a
+ * state is pruned when a ghost is on its tile at that tick, or when Pacman and
+ * a ghost would swap tiles between two ticks. Pacman never waits, so the cost
+ * of a state is its tick.
+ * <p>
+ * The heuristic is the DistanceTable distance to the goal, or 0 on mazes too
+ * big for a table, where the search degrades to Dijkstra by tick rather than
+ * run a breadth first search for every state it pushes.
+ * <p>
+ * The reservation table, the visited marks and the open list are reused, and
+ * reset by bumping a stamp, so a plan costs no allocation once the open list
+ * has grown.
+ * <p>
+ * The player doesn't use it: simulated games gave no fewer deaths when
+ * getIntersectionDir vetoed the directions it couldn't plan through.
+ */
+public class SpaceTimePlanner {
+
+	public static final int BUDGET_EXCEEDED = -2;
+
+	private final MazeGraph graph;
+	private final DistanceTable distanceTable;
+	private final int horizon;
+	private final int ticks;
+
+	// Indexed by cell * ticks + tick, valid while equal to the stamp
+	private final int[] reserved;
+	private int reserveStamp = 1;
+	private final int[] visited;
+	private int searchStamp = 1;
+
+	private long[] open = new long[64];
+
+	// (tile, heading) pairs of the ghost prediction, and marks of the states
+	// already in the next frontier
+	private int[] frontier;
+	private int[] nextFrontier;
+	private final int[] seen;
+	private int frontierStamp = 1;
+	private boolean goalInReach;
+
+	/**
+	 * @param graph
+	 * @param horizon
+	 *            - number of ticks looked ahead
+	 */
+	public SpaceTimePlanner(MazeGraph graph, int horizon) {
+		this.graph = graph;
+		this.distanceTable = graph.getDistanceTable();
+		this.horizon = horizon;
+		this.ticks = horizon + 1;
+		this.reserved = new int[graph.getCellCount() * ticks];
+		this.visited = new int[reserved.length];
+		this.frontier = new int[graph.getCellCount() * 8];
+		this.nextFrontier = new int[frontier.length];
+		this.seen = new int[graph.getCellCount() * 4];
+	}
+
+	public int getHorizon() {
+		return horizon;
+	}
+
+	/**
+	 * Forget every reservation.
+	 */
+	public void clearReservations() {
+		if (++reserveStamp == 0) {
+			Arrays.fill(reserved, 0);
+			reserveStamp = 1;
+		}
+	}
+
+	public void reserve(int tile, int tick) {
+		int cell = graph.getCell(tile);
+		if (cell >= 0 && tick >= 0 && tick <= horizon) {
+			reserved[cell * ticks + tick] = reserveStamp;
+		}
+	}
+
+	private boolean isReserved(int cell, int tick) {
+		return tick <= horizon && reserved[cell * ticks + tick] == reserveStamp;
+	}
+
+	/**
+	 * Reserve every tile a ghost can be on at every tick, following all the
+	 * ways it can go without turning back.
+	 *
+	 * @param tile
+	 *            - tile ID of the ghost
+	 * @param heading
+	 *            - MoveDir ordinal the ghost is heading in, or -1
+	 */
+	public void reserveGhost(int tile, int heading) {
+		if (graph.getCell(tile) < 0) {
+			return;
+		}
+		reserve(tile, 0);
+		int size = 0;
+		frontier[size++] = tile;
+		frontier[size++] = heading;
+		for (int tick = 1; tick <= horizon && size > 0; tick++) {
+			if (++frontierStamp == 0) {
+				Arrays.fill(seen, 0);
+				frontierStamp = 1;
+			}
+			int nextSize = 0;
+			for (int i = 0; i < size; i += 2) {
+				int from = frontier[i], h = frontier[i + 1];
+				int back = h >= 0 ? MazeGraph.opposite(h) : -1;
+				int moves = 0;
+				for (int dir = 0; dir < 4; dir++) {
+					if (dir != back && graph.getNeighbour(from, dir) >= 0) {
+						nextSize = advance(from, dir, tick, nextSize);
+						moves++;
+					}
+				}
+				// A dead end, the only way is back
+				if (moves == 0 && back >= 0 && graph.getNeighbour(from, back) >= 0) {
+					nextSize = advance(from, back, tick, nextSize);
+				}
+			}
+			int[] swap = frontier;
+			frontier = nextFrontier;
+			nextFrontier = swap;
+			size = nextSize;
+		}
+	}
+
+	private int advance(int from, int dir, int tick, int size) {
+		int next = graph.getNeighbour(from, dir);
+		int state = graph.getCell(next) * 4 + dir;
+		if (seen[state] == frontierStamp) {
+			return size;
+		}
+		seen[state] = frontierStamp;
+		reserve(next, tick);
+		nextFrontier[size++] = next;
+		nextFrontier[size++] = dir;
+		return size;
+	}
+
+	/**
+	 * Plan a path leaving start in firstDir which reaches goal without meeting
+	 * a reserved tile. If the goal is beyond the horizon, surviving until the
+	 * horizon is enough.
+	 *
+	 * @param start
+	 *            - tile ID of Pacman at tick 0
+	 * @param firstDir
+	 *            - MoveDir ordinal of the first step
+	 * @param goal
+	 *            - tile ID
+	 * @param nodeBudget
+	 *            - maximum number of states expanded
+	 * @return int tick the goal or the horizon is reached at, -1 if every path
+	 *         meets a ghost, or BUDGET_EXCEEDED, which callers should treat as
+	 *         unsafe
+	 */
+	public int plan(int start, int firstDir, int goal, int nodeBudget) {
+		int startCell = graph.getCell(start);
+		int first = graph.getNeighbour(start, firstDir);
+		if (startCell < 0 || first < 0 || horizon < 1) {
+			return -1;
+		}
+		if (++searchStamp == 0) {
+			Arrays.fill(visited, 0);
+			searchStamp = 1;
+		}
+		int d = graph.distance(first, goal);
+		goalInReach = d != DistanceTable.UNREACHABLE && d + 1 <= horizon;
+		int size = 0;
+		if (canEnter(startCell, graph.getCell(first), 0)) {
+			size = push(size, first, 1, goal);
+		}
+		int expanded = 0;
+		while (size > 0) {
+			long top = open[0];
+			open[0] = open[--size];
+			siftDown(size);
+			int state = (int) top;
+			int cell = state / ticks;
+			int tick = state % ticks;
+			int tile = graph.getCellTile(cell);
+			if (tile == goal || (!goalInReach && tick == horizon)) {
+				return tick;
+			}
+			if (++expanded > nodeBudget) {
+				return BUDGET_EXCEEDED;
+			}
+			for (int dir = 0; dir < 4; dir++) {
+				int next = graph.getNeighbour(tile, dir);
+				if (next >= 0 && tick < horizon
+						&& canEnter(cell, graph.getCell(next), tick)) {
+					size = push(size, next, tick + 1, goal);
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return boolean whether Pacman can step from one cell at tick to the
+	 *         other at tick + 1
+	 */
+	private boolean canEnter(int fromCell, int toCell, int tick) {
+		if (isReserved(toCell, tick + 1)) {
+			return false;
+		}
+		// A ghost coming the other way between the two ticks
+		return !(isReserved(toCell, tick) && isReserved(fromCell, tick + 1));
+	}
+
+	private int push(int size, int tile, int tick, int goal) {
+		int state = graph.getCell(tile) * ticks + tick;
+		if (visited[state] == searchStamp) {
+			return size;
+		}
+		visited[state] = searchStamp;
+		int h = distanceTable != null ? distanceTable.distance(tile, goal) : 0;
+		if (h == DistanceTable.UNREACHABLE && goalInReach) {
+			return size;
+		}
+		if (!goalInReach) {
+			h = Math.min(h, horizon - tick);
+		}
+		long value = (long) (tick + h) << 32 | state;
+		if (size == open.length) {
+			open = Arrays.copyOf(open, size * 2);
+		}
+		int i = size;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (open[parent] <= value) {
+				break;
+			}
+			open[i] = open[parent];
+			i = parent;
+		}
+		open[i] = value;
+		return size + 1;
+	}
+
+	private void siftDown(int size) {
+		if (size == 0) {
+			return;
+		}
+		long value = open[0];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && open[child + 1] < open[child]) {
+				child++;
+			}
+			if (open[child] >= value) {
+				break;
+			}
+			open[i] = open[child];
+			i = child;
+		}
+		open[i] = value;
+	}
+}
@@ -0,0 +1,303 @@
+import java.util.Arrays;
+
+/**
+ * Articulation points, biconnected components and pocket sizes of the node
+ * graph, found with one iterative run of Tarjan's algorithm over the corridor
+ * segments.
+ * <p>
+ * The pocket of a node graph edge from x is the number of tiles in the part
+ * of the maze the edge leads into once x is taken away. When x is an
+ * articulation point that part can only be left through x again, so a ghost
+ * on x closes it; otherwise it is the whole rest of the maze. A corridor
+ * looping from x back to x is a pocket of x as well. A small pocket is a
+ * trap.
+ * <p>
+ * For pockets up to MAX_POCKET tiles the depth is kept as well, the walking
+ * distance from x to the tile of the pocket farthest from it. Going in and
+ * out of the pocket takes up to twice the depth, so a ghost that can be on x
+ * sooner closes it off.
+ */
+public class TrapAnalysis {
+
+	/**
+	 * Largest pocket we find the depth of.
+	 */
+	public static final int MAX_POCKET = 30;
+
+	private final MazeGraph graph;
+	private final NodeGraph nodeGraph;
+	private final SegmentIndex segments;
+
+	private final boolean[] articulation;
+	private final int[] blockOfSegment;
+	private int blockCount;
+	private final int[] pocket;
+	private final int[] depth;
+
+	public TrapAnalysis(MazeGraph graph) {
+		this.graph = graph;
+		this.nodeGraph = graph.getNodeGraph();
+		this.segments = graph.getSegmentIndex();
+		int nodeCount = nodeGraph.getNodeCount();
+		int segCount = segments.getSegmentCount();
+		this.articulation = new boolean[nodeCount];
+		this.blockOfSegment = new int[segCount];
+		this.pocket = new int[nodeGraph.getEdgeCount()];
+		this.depth = new int[pocket.length];
+		Arrays.fill(blockOfSegment, -1);
+
+		int[] disc = new int[nodeCount];
+		int[] low = new int[nodeCount];
+		int[] last = new int[nodeCount];
+		int[] parent = new int[nodeCount];
+		int[] parentSeg = new int[nodeCount];
+		int[] tiles = new int[nodeCount];
+		int[] rootOf = new int[nodeCount];
+		Arrays.fill(disc, -1);
+		search(disc, low, last, parent, parentSeg, tiles, rootOf);
+		makePockets(disc, low, last, parent, tiles, rootOf);
+		makeDepths();
+	}
+
+	private int otherEnd(int seg, int node) {
+		int a = segments.getNodeA(seg);
+		return a == node ? segments.getNodeB(seg) : a;
+	}
+
+	private boolean usable(int seg) {
+		return segments.getNodeA(seg) >= 0;
+	}
+
+	/**
+	 * Depth first search with an explicit stack, filling in discovery
+	 * times, low links, the last discovery time under every node, and the
+	 * tiles of every subtree. A segment's inner tiles belong to its end
+	 * discovered last.
+	 */
+	private void search(int[] disc, int[] low, int[] last, int[] parent,
+			int[] parentSeg, int[] tiles, int[] rootOf) {
+		int nodeCount = disc.length;
+		int[] stack = new int[nodeCount];
+		int[] nextEdge = new int[nodeCount];
+		int[] segStack = new int[segments.getSegmentCount()];
+		int segTop = 0;
+		int time = 0;
+		for (int root = 0; root < nodeCount; root++) {
+			if (disc[root] >= 0) {
+				continue;
+			}
+			int top = 0;
+			stack[top++] = root;
+			disc[root] = low[root] = time++;
+			rootOf[root] = root;
+			parent[root] = -1;
+			parentSeg[root] = -1;
+			nextEdge[root] = nodeGraph.getEdgeStart(root);
+			int rootChildren = 0;
+			while (top > 0) {
+				int x = stack[top - 1];
+				if (nextEdge[x] < nodeGraph.getEdgeEnd(x)) {
+					int seg = segments.getSegmentOfEdge(nextEdge[x]++);
+					if (!usable(seg) || seg == parentSeg[x]) {
+						continue;
+					}
+					int y = otherEnd(seg, x);
+					if (y == x) {
+						// A loop back to the same node is a block of its own
+						if (blockOfSegment[seg] < 0) {
+							blockOfSegment[seg] = blockCount++;
+							tiles[x] += segments.getLength(seg);
+						}
+						continue;
+					}
+					if (disc[y] < 0) {
+						segStack[segTop++] = seg;
+						parent[y] = x;
+						parentSeg[y] = seg;
+						disc[y] = low[y] = time++;
+						rootOf[y] = root;
+						nextEdge[y] = nodeGraph.getEdgeStart(y);
+						tiles[y] += segments.getLength(seg);
+						stack[top++] = y;
+						if (x == root) {
+							rootChildren++;
+						}
+					} else if (disc[y] < disc[x]) {
+						// Back edge to an ancestor
+						segStack[segTop++] = seg;
+						low[x] = Math.min(low[x], disc[y]);
+						tiles[x] += segments.getLength(seg);
+					}
+					continue;
+				}
+				top--;
+				tiles[x] += 1;
+				last[x] = time - 1;
+				int p = parent[x];
+				if (p < 0) {
+					continue;
+				}
+				low[p] = Math.min(low[p], low[x]);
+				tiles[p] += tiles[x];
+				if (low[x] >= disc[p]) {
+					if (p != root) {
+						articulation[p] = true;
+					}
+					int block = blockCount++;
+					int seg;
+					do {
+						seg = segStack[--segTop];
+						blockOfSegment[seg] = block;
+					} while (seg != parentSeg[x]);
+				}
+			}
+			articulation[root] = rootChildren > 1;
+		}
+	}
+
+	private void makePockets(int[] disc, int[] low, int[] last, int[] parent,
+			int[] tiles, int[] rootOf) {
+		int nodeCount = disc.length;
+		// Tiles of the subtrees cut off by each node, and the children of
+		// each node as linked lists
+		int[] cutTiles = new int[nodeCount];
+		int[] firstChild = new int[nodeCount];
+		int[] nextSibling = new int[nodeCount];
+		Arrays.fill(firstChild, -1);
+		for (int node = 0; node < nodeCount; node++) {
+			int p = parent[node];
+			if (p < 0) {
+				continue;
+			}
+			nextSibling[node] = firstChild[p];
+			firstChild[p] = node;
+			if (low[node] >= disc[p]) {
+				cutTiles[p] += tiles[node];
+			}
+		}
+		for (int x = 0; x < nodeCount; x++) {
+			// Loops from x to x are cut off by x as well
+			int loopTiles = 0;
+			for (int edge = nodeGraph.getEdgeStart(x); edge < nodeGraph
+					.getEdgeEnd(x); edge++) {
+				int seg = segments.getSegmentOfEdge(edge);
+				if (usable(seg) && otherEnd(seg, x) == x
+						&& segments.getEdgeAB(seg) == edge) {
+					loopTiles += segments.getLength(seg);
+				}
+			}
+			int rest = tiles[rootOf[x]] - 1 - cutTiles[x] - loopTiles;
+			for (int edge = nodeGraph.getEdgeStart(x); edge < nodeGraph
+					.getEdgeEnd(x); edge++) {
+				int seg = segments.getSegmentOfEdge(edge);
+				pocket[edge] = rest;
+				if (!usable(seg)) {
+					continue;
+				}
+				int y = otherEnd(seg, x);
+				if (y == x) {
+					pocket[edge] = segments.getLength(seg);
+					continue;
+				}
+				if (disc[y] <= disc[x] || disc[y] > last[x]) {
+					continue;
+				}
+				// y is below x, find the child of x whose subtree holds it
+				int child = firstChild[x];
+				while (disc[y] < disc[child] || disc[y] > last[child]) {
+					child = nextSibling[child];
+				}
+				if (low[child] >= disc[x]) {
+					pocket[edge] = tiles[child];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Breadth first search of each small pocket from its entry node, which
+	 * never steps back onto the entry node. A search that finds more tiles
+	 * than MAX_POCKET gives up.
+	 */
+	private void makeDepths() {
+		Arrays.fill(depth, -1);
+		int[] dist = new int[graph.getTileCount()];
+		int[] stamp = new int[dist.length];
+		int[] queue = new int[MAX_POCKET + 4];
+		for (int x = 0; x < nodeGraph.getNodeCount(); x++) {
+			int entry = nodeGraph.getNodeTile(x);
+			for (int edge = nodeGraph.getEdgeStart(x); edge < nodeGraph
+					.getEdgeEnd(x); edge++) {
+				if (pocket[edge] <= MAX_POCKET) {
+					depth[edge] = searchDepth(edge, entry, edge + 1, dist,
+							stamp, queue);
+				}
+			}
+		}
+	}
+
+	private int searchDepth(int edge, int entry, int currentStamp, int[] dist,
+			int[] stamp, int[] queue) {
+		int first = nodeGraph.getTile(edge, 0);
+		stamp[entry] = currentStamp;
+		stamp[first] = currentStamp;
+		dist[first] = 1;
+		int head = 0, tail = 0;
+		queue[tail++] = first;
+		int farthest = 0;
+		while (head < tail) {
+			int tile = queue[head++];
+			farthest = dist[tile];
+			for (int dir = 0; dir < 4; dir++) {
+				int next = graph.getNeighbour(tile, dir);
+				if (next >= 0 && stamp[next] != currentStamp) {
+					if (tail == queue.length) {
+						return -1;
+					}
+					stamp[next] = currentStamp;
+					dist[next] = dist[tile] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return farthest;
+	}
+
+	public boolean isArticulation(int node) {
+		return articulation[node];
+	}
+
+	/**
+	 * @param seg
+	 * @return int biconnected component of a segment, or -1 for a segment
+	 *         with a missing end
+	 */
+	public int getBlock(int seg) {
+		return blockOfSegment[seg];
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * @param edge
+	 *            - node graph edge
+	 * @return int tiles in the part of the maze the edge leads into, when its
+	 *         source node is taken away
+	 */
+	public int getPocket(int edge) {
+		return pocket[edge];
+	}
+
+	/**
+	 * @param edge
+	 *            - node graph edge
+	 * @return int walking distance from the edge's source node to the
+	 *         farthest tile of its pocket, or -1 if the pocket is bigger than
+	 *         MAX_POCKET
+	 */
+	public int getPocketDepth(int edge) {
+		return depth[edge];
+	}
+}